@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a whole render, from the Mandlebrot constructor through calculatePixelValues. Each
+ * render is released afterwards, as Main does, so its grid comes from the GridPool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CalculatePixelValuesBenchmark {
+  @Param
+  public Viewport viewport;
+
+  // Other kernels can be measured with, for example, -p kernel=multibrot:3,burningship.
+  @Param({"mandlebrot"})
+  public String kernel;
+
+  @Param({"1", "4", "16"})
+  public int numThreads;
+
+  @Param({"false", "true"})
+  public boolean useNativeCode;
+
+  @Param({"500"})
+  public int sizeInPixels;
+
+  private Kernel parsedKernel;
+
+  @Setup
+  public void setUp() {
+    parsedKernel = Kernel.parse(kernel);
+    if (useNativeCode) {
+      System.loadLibrary("mandlebrot_jni");
+    }
+  }
+
+  @Benchmark
+  public void render(Blackhole blackhole) {
+    Mandlebrot m = viewport.render(parsedKernel, useNativeCode, numThreads, sizeInPixels);
+    blackhole.consume(m);
+    m.release();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalculateValueBenchmark {
+  public enum Point {
+    // Escapes after a couple of iterations.
+    EXTERIOR(1.5, 1.5),
+    // Escapes after several hundred (547) iterations.
+    BOUNDARY(-0.746, 0.11),
+    // Never escapes, so runs all MAX_VALUE iterations.
+    INTERIOR(-0.1, 0.1);
+
+    final double cA;
+    final double cB;
+
+    Point(double cA, double cB) {
+      this.cA = cA;
+      this.cB = cB;
+    }
+  }
+
+  @Param
+  public Point point;
+
+  @Param({"false", "true"})
+  public boolean useNativeCode;
+
+  private Mandlebrot mandlebrot;
+
+  @Setup
+  public void setUp() {
+    if (useNativeCode) {
+      System.loadLibrary("mandlebrot_jni");
+    }
+    // A one pixel Mandlebrot is just the receiver for calculateValue.
+    mandlebrot = new Mandlebrot(useNativeCode, 1, 1, 0, 0, 4);
+  }
+
+  @TearDown
+  public void tearDown() {
+    mandlebrot.release();
+  }
+
+  @Benchmark
+  public int calculateValue() {
+    return mandlebrot.calculateValue(point.cA, point.cB);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the work Main does after a render: filling the color table and colorizing the values
+ * into an image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColorizeBenchmark {
+  @Param
+  public Viewport viewport;
+
+  @Param({"1000"})
+  public int sizeInPixels;
+
+  private Mandlebrot mandlebrot;
+  private ColorTable colorTable;
+  private BufferedImage image;
+
+  @Setup
+  public void setUp() {
+    mandlebrot = viewport.render(Kernel.MANDLEBROT, false, Runtime.getRuntime().availableProcessors(), sizeInPixels);
+    colorTable = new ColorTable(Mandlebrot.MAX_VALUE, Color::HSBtoRGB);
+    fillColorTable();
+    image = new BufferedImage(sizeInPixels, sizeInPixels, BufferedImage.TYPE_INT_RGB);
+  }
+
+  @TearDown
+  public void tearDown() {
+    mandlebrot.release();
+  }
+
+  @Benchmark
+  public ColorTable fillColorTable() {
+    colorTable.fillDefault();
+    return colorTable;
+  }
+
+  @Benchmark
+  public BufferedImage produceImage() {
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    colorTable.valuesToColors(mandlebrot.asIntBuffer(), pixels, 0);
+    return image;
+  }
+}
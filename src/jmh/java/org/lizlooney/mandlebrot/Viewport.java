@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+/**
+ * A fixed corpus of named viewports, used so that benchmark results are comparable between runs.
+ */
+public enum Viewport {
+  // The view that Main and MandlebrotActivity start with.
+  START(0, 0, 4),
+  // The view shown in README.md.
+  README(-0.724140625, 0.2864375000000003, 0.00390625),
+  // Mostly boundary: the spirals between the main cardioid and the period-2 bulb.
+  SEAHORSE_VALLEY(-0.7453, 0.1127, 0.0065),
+  // Mostly interior: the main cardioid.
+  CARDIOID(-0.1, 0, 0.5),
+  // Mostly exterior: far outside the set.
+  EXTERIOR(2, 2, 1);
+
+  public final double aCenter;
+  public final double bCenter;
+  public final double size;
+
+  Viewport(double aCenter, double bCenter, double size) {
+    this.aCenter = aCenter;
+    this.bCenter = bCenter;
+    this.size = size;
+  }
+
+  public Mandlebrot render(Kernel kernel, boolean useNativeCode, int numThreads, int sizeInPixels) {
+    return new Mandlebrot(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size);
+  }
+}
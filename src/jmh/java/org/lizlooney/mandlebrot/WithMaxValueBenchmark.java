@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures raising the iteration limit of a view, by continuing the pixels that didn't escape
+ * (resume) or by calculating every pixel again (recalculate). Each result is released afterwards,
+ * so its grid comes from the GridPool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WithMaxValueBenchmark {
+  @Param({"SEAHORSE_VALLEY", "CARDIOID"})
+  public Viewport viewport;
+
+  @Param({"4"})
+  public int numThreads;
+
+  @Param({"500"})
+  public int sizeInPixels;
+
+  @Param({"10000"})
+  public int newMaxValue;
+
+  private Mandlebrot resumable;
+
+  @Setup
+  public void setUp() {
+    resumable = Mandlebrot.resumable(Kernel.MANDLEBROT, numThreads, sizeInPixels,
+        viewport.aCenter, viewport.bCenter, viewport.size, Mandlebrot.MAX_VALUE);
+  }
+
+  @TearDown
+  public void tearDown() {
+    resumable.release();
+  }
+
+  @Benchmark
+  public void resume(Blackhole blackhole) {
+    Mandlebrot m = resumable.withMaxValue(newMaxValue);
+    blackhole.consume(m);
+    m.release();
+  }
+
+  @Benchmark
+  public void recalculate(Blackhole blackhole) {
+    Mandlebrot m = Mandlebrot.resumable(Kernel.MANDLEBROT, numThreads, sizeInPixels,
+        viewport.aCenter, viewport.bCenter, viewport.size, newMaxValue);
+    blackhole.consume(m);
+    m.release();
+  }
+}
@@ -14,67 +14,246 @@
  * limitations under the License.
  */
 
+#include <math.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <jni.h>
 #include <pthread.h>
 
-#ifdef __cplusplus
-extern "C" {
-#endif
+// Kernel ids; these must match the ids in Kernel.java.
+#define MANDLEBROT_ID 0
+#define JULIA_ID 1
+#define MULTIBROT_ID 2
+#define BURNING_SHIP_ID 3
+
+// Each kernel is a struct with a value function. The row loop is a template, so each kernel gets
+// its own compiled loop with the value function inlined.
+
+struct MandlebrotKernel {
+  jdouble paramA;
+  jdouble paramB;
+
+  inline jint value(jdouble cA, jdouble cB, jint maxValue) const {
+    jdouble zA = cA;
+    jdouble zB = cB;
+    for (jint i = 0; i <= maxValue; i++) {
+      jdouble zAzA = zA * zA;
+      jdouble zBzB = zB * zB;
+      if (zAzA + zBzB >= 4) {
+        return i;
+      }
+      jdouble nextA = zAzA - zBzB + cA;
+      zB = 2 * zA * zB + cB;
+      zA = nextA;
+    }
+    return 2147483647; // Integer.MAX_VALUE;
+  }
+};
+
+struct JuliaKernel {
+  jdouble paramA;
+  jdouble paramB;
+
+  // Here the pixel is the starting value of z, and c is fixed.
+  inline jint value(jdouble zA, jdouble zB, jint maxValue) const {
+    for (jint i = 0; i <= maxValue; i++) {
+      jdouble zAzA = zA * zA;
+      jdouble zBzB = zB * zB;
+      if (zAzA + zBzB >= 4) {
+        return i;
+      }
+      jdouble nextA = zAzA - zBzB + paramA;
+      zB = 2 * zA * zB + paramB;
+      zA = nextA;
+    }
+    return 2147483647; // Integer.MAX_VALUE;
+  }
+};
+
+struct MultibrotKernel {
+  jdouble paramA; // The exponent.
+  jdouble paramB;
+
+  inline jint value(jdouble cA, jdouble cB, jint maxValue) const {
+    jint exponent = (jint) paramA;
+    jdouble zA = cA;
+    jdouble zB = cB;
+    for (jint i = 0; i <= maxValue; i++) {
+      if (zA * zA + zB * zB >= 4) {
+        return i;
+      }
+      jdouble pA = zA;
+      jdouble pB = zB;
+      for (jint e = 1; e < exponent; e++) {
+        jdouble nextPA = pA * zA - pB * zB;
+        pB = pA * zB + pB * zA;
+        pA = nextPA;
+      }
+      zA = pA + cA;
+      zB = pB + cB;
+    }
+    return 2147483647; // Integer.MAX_VALUE;
+  }
+};
 
-jint calculateValue(jdouble cA, jdouble cB, jint maxValue) {
-  jdouble zA = cA;
-  jdouble zB = cB;
-  for (jint i = 0; i <= maxValue; i++) {
-    jdouble zAzA = zA * zA;
-    jdouble zBzB = zB * zB;
-    if (zAzA + zBzB >= 4) {
-      return i;
+struct BurningShipKernel {
+  jdouble paramA;
+  jdouble paramB;
+
+  inline jint value(jdouble cA, jdouble cB, jint maxValue) const {
+    jdouble zA = cA;
+    jdouble zB = cB;
+    for (jint i = 0; i <= maxValue; i++) {
+      jdouble zAzA = zA * zA;
+      jdouble zBzB = zB * zB;
+      if (zAzA + zBzB >= 4) {
+        return i;
+      }
+      jdouble nextA = zAzA - zBzB + cA;
+      zB = 2 * fabs(zA * zB) + cB;
+      zA = nextA;
+    }
+    return 2147483647; // Integer.MAX_VALUE;
+  }
+};
+
+// The float version of the mandlebrot kernel. FLOAT_LANES pixels are iterated together, with
+// no data dependent branches inside the lane loop, so the compiler can vectorize it. A lane that
+// has escaped keeps its z and stops counting, so each lane's result is the same as iterating
+// that pixel alone.
+#define FLOAT_LANES 8
+
+void calculateMandlebrotRowFloat(jint *row, jint width, jdouble aMin, jint xStart,
+    jdouble pixelsPerUnit, jdouble cBDouble, jint maxValue) {
+  const float cB = (float) cBDouble;
+  for (jint x0 = 0; x0 < width; x0 += FLOAT_LANES) {
+    float cA[FLOAT_LANES];
+    float zA[FLOAT_LANES];
+    float zB[FLOAT_LANES];
+    jint count[FLOAT_LANES];
+    for (int l = 0; l < FLOAT_LANES; l++) {
+      // Lanes past the end of the row repeat the last pixel.
+      jint x = (x0 + l < width) ? x0 + l : width - 1;
+      cA[l] = (float) (aMin + (xStart + x) / pixelsPerUnit);
+      zA[l] = cA[l];
+      zB[l] = cB;
+      count[l] = 0;
+    }
+    for (jint i = 0; i <= maxValue; i++) {
+      int active = 0;
+      for (int l = 0; l < FLOAT_LANES; l++) {
+        float zAzA = zA[l] * zA[l];
+        float zBzB = zB[l] * zB[l];
+        int inside = zAzA + zBzB < 4;
+        count[l] += inside;
+        float nextA = zAzA - zBzB + cA[l];
+        float nextB = 2 * zA[l] * zB[l] + cB;
+        zA[l] = inside ? nextA : zA[l];
+        zB[l] = inside ? nextB : zB[l];
+        active |= inside;
+      }
+      if (!active) {
+        break;
+      }
+    }
+    for (int l = 0; l < FLOAT_LANES && x0 + l < width; l++) {
+      row[x0 + l] = (count[l] > maxValue) ? 2147483647 : count[l]; // Integer.MAX_VALUE;
     }
-    jdouble nextA = zAzA - zBzB + cA;
-    zB = 2 * zA * zB + cB;
-    zA = nextA;
   }
-  return 2147483647; // Integer.MAX_VALUE;
+}
+
+jint calculateValue(jint kernelId, jdouble kernelParamA, jdouble kernelParamB,
+    jdouble cA, jdouble cB, jint maxValue) {
+  switch (kernelId) {
+    case JULIA_ID:
+      return JuliaKernel{kernelParamA, kernelParamB}.value(cA, cB, maxValue);
+    case MULTIBROT_ID:
+      return MultibrotKernel{kernelParamA, kernelParamB}.value(cA, cB, maxValue);
+    case BURNING_SHIP_ID:
+      return BurningShipKernel{kernelParamA, kernelParamB}.value(cA, cB, maxValue);
+    default:
+      return MandlebrotKernel{kernelParamA, kernelParamB}.value(cA, cB, maxValue);
+  }
 }
 
 typedef struct argsForThread {
   jint threadNumber;
   jint *values;
   jint numThreads;
+  jboolean useFloat;
+  jint kernelId;
+  jdouble kernelParamA;
+  jdouble kernelParamB;
   jdouble aMin;
   jdouble bMin;
   jdouble pixelsPerUnit;
+  jint xOffset;
+  jint yOffset;
   jint sizeInPixels;
   jint maxValue;
+  // For each row, the row that it is a mirror image of, or -1. Rows that are mirror images are
+  // skipped; the caller copies them afterwards. May be NULL.
+  const jint *mirrorOf;
 } ArgsForThread;
 
+inline bool isMirrored(const ArgsForThread *args, int y) {
+  return args->mirrorOf != NULL && args->mirrorOf[y] >= 0;
+}
+
+template <typename Kernel>
+void calculateRows(const Kernel &kernel, ArgsForThread *args) {
+  // Rows are interleaved between the threads so that expensive areas are shared out evenly.
+  for (int y = args->threadNumber; y < args->sizeInPixels; y += args->numThreads) {
+    if (isMirrored(args, y)) {
+      continue;
+    }
+    double cB = args->bMin + (args->yOffset + y) / args->pixelsPerUnit;
+    jint *row = args->values + y * args->sizeInPixels;
+    for (int x = 0; x < args->sizeInPixels; x++) {
+      double cA = args->aMin + (args->xOffset + x) / args->pixelsPerUnit;
+      row[x] = kernel.value(cA, cB, args->maxValue);
+    }
+  }
+}
+
 void *calculateValuesForThread(void *vargp) {
   ArgsForThread *args = (ArgsForThread *)vargp;
 
-  int i = 0;
-  for (int y = 0; y < args->sizeInPixels; y++) {
-    for (int x = 0; x < args->sizeInPixels; x++) {
-      if (args->numThreads == 1 || i % args->numThreads == args->threadNumber) {
-        double cA = args->aMin + x / args->pixelsPerUnit;
-        double cB = args->bMin + y / args->pixelsPerUnit;
-        args->values[i] = calculateValue(cA, cB, args->maxValue);
+  if (args->useFloat && args->kernelId == MANDLEBROT_ID) {
+    for (int y = args->threadNumber; y < args->sizeInPixels; y += args->numThreads) {
+      if (isMirrored(args, y)) {
+        continue;
       }
-      i++;
+      double cB = args->bMin + (args->yOffset + y) / args->pixelsPerUnit;
+      calculateMandlebrotRowFloat(args->values + y * args->sizeInPixels, args->sizeInPixels,
+          args->aMin, args->xOffset, args->pixelsPerUnit, cB, args->maxValue);
     }
+    pthread_exit(NULL);
+    return NULL;
+  }
+
+  switch (args->kernelId) {
+    case JULIA_ID:
+      calculateRows(JuliaKernel{args->kernelParamA, args->kernelParamB}, args);
+      break;
+    case MULTIBROT_ID:
+      calculateRows(MultibrotKernel{args->kernelParamA, args->kernelParamB}, args);
+      break;
+    case BURNING_SHIP_ID:
+      calculateRows(BurningShipKernel{args->kernelParamA, args->kernelParamB}, args);
+      break;
+    default:
+      calculateRows(MandlebrotKernel{args->kernelParamA, args->kernelParamB}, args);
+      break;
   }
   pthread_exit(NULL);
   return NULL;
 }
 
-JNIEXPORT void JNICALL
-Java_org_lizlooney_mandlebrot_Mandlebrot_calculatePixelValuesNative(
-  JNIEnv* env, jclass clazz,
-  jintArray valuesArg, jint numThreads, double aMin, double bMin, jdouble pixelsPerUnit, jint sizeInPixels, jint maxValue) {
-
-  jboolean copy = JNI_FALSE;
-  jint* const values = env->GetIntArrayElements(valuesArg, &copy);
-
+void calculatePixelValues(jint *values, jint numThreads, jboolean useFloat,
+    jint kernelId, jdouble kernelParamA, jdouble kernelParamB, jdouble aMin, jdouble bMin,
+    jdouble pixelsPerUnit, jint xOffset, jint yOffset, jint sizeInPixels, jint maxValue,
+    const jint *mirrorOf) {
   ArgsForThread *args = (ArgsForThread *) malloc(numThreads * sizeof(ArgsForThread));
   pthread_t *threadIds = (pthread_t *) malloc(numThreads * sizeof(pthread_t));
 
@@ -82,11 +261,18 @@ Java_org_lizlooney_mandlebrot_Mandlebrot_calculatePixelValuesNative(
     args[threadNumber].threadNumber = threadNumber;
     args[threadNumber].values = values;
     args[threadNumber].numThreads = numThreads;
+    args[threadNumber].useFloat = useFloat;
+    args[threadNumber].kernelId = kernelId;
+    args[threadNumber].kernelParamA = kernelParamA;
+    args[threadNumber].kernelParamB = kernelParamB;
     args[threadNumber].aMin = aMin;
     args[threadNumber].bMin = bMin;
     args[threadNumber].pixelsPerUnit = pixelsPerUnit;
+    args[threadNumber].xOffset = xOffset;
+    args[threadNumber].yOffset = yOffset;
     args[threadNumber].sizeInPixels = sizeInPixels;
     args[threadNumber].maxValue = maxValue;
+    args[threadNumber].mirrorOf = mirrorOf;
 
     pthread_create(&threadIds[threadNumber], NULL, calculateValuesForThread, &args[threadNumber]);
   }
@@ -97,17 +283,57 @@ Java_org_lizlooney_mandlebrot_Mandlebrot_calculatePixelValuesNative(
 
   free(args);
   free(threadIds);
+}
 
-  env->ReleaseIntArrayElements(valuesArg, values, 0);
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+JNIEXPORT void JNICALL
+Java_org_lizlooney_mandlebrot_Mandlebrot_calculatePixelValuesNative(
+  JNIEnv* env, jclass clazz,
+  jobject valuesArg, jint numThreads, jboolean useFloat,
+  jint kernelId, jdouble kernelParamA, jdouble kernelParamB, double aMin, double bMin, jdouble pixelsPerUnit, jint xOffset, jint yOffset, jint sizeInPixels, jint maxValue,
+  jintArray mirrorOfArg) {
+
+  // values is a direct buffer, so the kernel writes straight into it.
+  jint* const values = (jint *) env->GetDirectBufferAddress(valuesArg);
+  jboolean copy = JNI_FALSE;
+  jint* const mirrorOf = env->GetIntArrayElements(mirrorOfArg, &copy);
+
+  calculatePixelValues(values, numThreads, useFloat, kernelId, kernelParamA, kernelParamB,
+      aMin, bMin, pixelsPerUnit, xOffset, yOffset, sizeInPixels, maxValue, mirrorOf);
+
+  env->ReleaseIntArrayElements(mirrorOfArg, mirrorOf, JNI_ABORT);
 }
 
 JNIEXPORT jint JNICALL
 Java_org_lizlooney_mandlebrot_Mandlebrot_calculateValueNative(
+  JNIEnv* env, jclass clazz,
+  jint kernelId, jdouble kernelParamA, jdouble kernelParamB, jdouble cA, jdouble cB, jint maxValue) {
+  return calculateValue(kernelId, kernelParamA, kernelParamB, cA, cB, maxValue);
+}
+
+JNIEXPORT jint JNICALL
+Java_org_lizlooney_mandlebrot_Mandlebrot_calculateValueFloatNative(
   JNIEnv* env, jclass clazz,
   jdouble cA, jdouble cB, jint maxValue) {
-  return calculateValue(cA, cB, maxValue);
+  // The same as the value of a pixel at cA calculated by calculateMandlebrotRowFloat.
+  jint value;
+  calculateMandlebrotRowFloat(&value, 1, cA, 0, 1, cB, maxValue);
+  return value;
 }
 
+// A plain C ABI for callers other than java, such as the python module through ctypes. The
+// arguments are the same as those of Mandlebrot.calculatePixelValuesNative; values must have
+// room for sizeInPixels * sizeInPixels ints.
+void mandlebrot_calculate_pixel_values(int32_t *values, int32_t numThreads,
+    int32_t kernelId, double kernelParamA, double kernelParamB, double aMin, double bMin,
+    double pixelsPerUnit, int32_t xOffset, int32_t yOffset, int32_t sizeInPixels,
+    int32_t maxValue) {
+  calculatePixelValues(values, numThreads, JNI_FALSE, kernelId, kernelParamA, kernelParamB,
+      aMin, bMin, pixelsPerUnit, xOffset, yOffset, sizeInPixels, maxValue, NULL);
+}
 
 #ifdef __cplusplus
 }
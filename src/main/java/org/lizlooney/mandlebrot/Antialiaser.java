@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive supersampling. Only pixels whose value differs from one of their neighbors' by more
+ * than a threshold are resampled, with a grid of samplesPerAxis x samplesPerAxis subpixels, and
+ * given the average color of the samples. Elsewhere, a pixel's color is already the same as its
+ * neighbors', so extra samples wouldn't change it.
+ */
+public class Antialiaser {
+  private final int samplesPerAxis;
+  private final int threshold;
+
+  public Antialiaser(int samplesPerAxis, int threshold) {
+    this.samplesPerAxis = samplesPerAxis;
+    this.threshold = threshold;
+  }
+
+  public static class Result {
+    public final int resampledPixels;
+    public final long extraSamples;
+
+    Result(int resampledPixels, long extraSamples) {
+      this.resampledPixels = resampledPixels;
+      this.extraSamples = extraSamples;
+    }
+
+    @Override
+    public String toString() {
+      return resampledPixels + " pixels resampled with " + extraSamples + " extra samples";
+    }
+  }
+
+  /**
+   * Antialiases colors, which must already hold the colors of m's values, as produced by
+   * colorTable.valuesToColors. The given alpha bits are or'ed into each new color. Rows are
+   * processed in parallel.
+   */
+  public Result antialias(Mandlebrot m, ColorTable colorTable, int[] colors, int alpha) {
+    int sizeInPixels = m.getSizeInPixels();
+    IntBuffer values = m.asIntBuffer();
+    AtomicInteger nextRow = new AtomicInteger();
+    AtomicInteger resampled = new AtomicInteger();
+    Mandlebrot.runThreads(Runtime.getRuntime().availableProcessors(), threadNumber -> {
+      for (int y = nextRow.getAndIncrement(); y < sizeInPixels; y = nextRow.getAndIncrement()) {
+        resampled.addAndGet(antialiasRow(m, colorTable, values, colors, alpha, y));
+      }
+    });
+    int resampledPixels = resampled.get();
+    return new Result(resampledPixels, (long) resampledPixels * samplesPerAxis * samplesPerAxis);
+  }
+
+  private int antialiasRow(Mandlebrot m, ColorTable colorTable, IntBuffer values, int[] colors,
+      int alpha, int y) {
+    int sizeInPixels = m.getSizeInPixels();
+    int resampledPixels = 0;
+    for (int x = 0; x < sizeInPixels; x++) {
+      if (!differsFromNeighbors(values, sizeInPixels, x, y)) {
+        continue;
+      }
+      int r = 0;
+      int g = 0;
+      int b = 0;
+      for (int sy = 0; sy < samplesPerAxis; sy++) {
+        double dy = (sy + 0.5) / samplesPerAxis - 0.5;
+        for (int sx = 0; sx < samplesPerAxis; sx++) {
+          double dx = (sx + 0.5) / samplesPerAxis - 0.5;
+          int color = colorTable.valueToColor(m.calculateSubpixelValue(x, y, dx, dy));
+          r += (color >> 16) & 0xFF;
+          g += (color >> 8) & 0xFF;
+          b += color & 0xFF;
+        }
+      }
+      int samples = samplesPerAxis * samplesPerAxis;
+      colors[y * sizeInPixels + x] = alpha | (r / samples) << 16 | (g / samples) << 8 | (b / samples);
+      resampledPixels++;
+    }
+    return resampledPixels;
+  }
+
+  private boolean differsFromNeighbors(IntBuffer values, int sizeInPixels, int x, int y) {
+    int i = y * sizeInPixels + x;
+    int value = values.get(i);
+    return (x > 0 && differs(value, values.get(i - 1)))
+        || (x < sizeInPixels - 1 && differs(value, values.get(i + 1)))
+        || (y > 0 && differs(value, values.get(i - sizeInPixels)))
+        || (y < sizeInPixels - 1 && differs(value, values.get(i + sizeInPixels)));
+  }
+
+  private boolean differs(int value1, int value2) {
+    // Widen to long, since interior values are Integer.MAX_VALUE.
+    return Math.abs((long) value1 - value2) > threshold;
+  }
+}
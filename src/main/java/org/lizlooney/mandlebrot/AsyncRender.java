@@ -0,0 +1,263 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * A render that runs without blocking the caller. The finished Mandlebrot is delivered through a
+ * CompletableFuture, and each tile, as soon as it has been calculated, through a Flow.Publisher.
+ *
+ * <p>Subscribe to tiles before calling start to see every tile. Tiles are delivered as fast as
+ * subscribers request them; once a subscriber's buffer is full, the calculation waits for it.
+ * Canceling the future stops the calculation between tiles, even if it is waiting for a
+ * subscriber: every subscription is canceled, and each subscriber gets onError with a
+ * CancellationException.
+ *
+ * <p>Each tile is a view of the finished Mandlebrot's values, so a subscriber must not use a tile
+ * after it returns from onComplete or onError, or after it cancels its subscription. The future
+ * completes only once every subscriber is done with the tiles; from then on, the Mandlebrot belongs
+ * to the future's owner, who may release it. If the render is canceled or fails, AsyncRender
+ * releases the Mandlebrot itself, once every subscriber is done with the tiles.
+ */
+public final class AsyncRender {
+  private interface Calculation {
+    Mandlebrot calculate(Mandlebrot.Canceled canceled, Mandlebrot.TileListener listener);
+  }
+
+  private final Calculation calculation;
+  private final SubmissionPublisher<Mandlebrot.Tile> tiles = new SubmissionPublisher<>();
+  private final List<TileSubscriber> subscribers = new CopyOnWriteArrayList<>();
+  private final CompletableFuture<Mandlebrot> result = new CompletableFuture<>();
+  // The Mandlebrot that the tiles are views of, once the first tile has been calculated.
+  private volatile Mandlebrot grid;
+  private boolean started;
+
+  private AsyncRender(Calculation calculation) {
+    this.calculation = calculation;
+    // A submit that is waiting for a subscriber only returns once that subscriber's subscription
+    // is canceled; closing the publisher would wait for the submit.
+    result.whenComplete((m, t) -> {
+      if (result.isCancelled()) {
+        for (TileSubscriber subscriber : subscribers) {
+          subscriber.cancelUpstream();
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a render of the given view, calculated tileSize x tileSize pixels at a time from the
+   * center outwards.
+   */
+  public static AsyncRender of(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, int tileSize) {
+    return new AsyncRender((canceled, listener) -> new Mandlebrot(kernel, useNativeCode,
+        numThreads, sizeInPixels, aCenter, bCenter, size, canceled,
+        sizeInPixels / 2, sizeInPixels / 2, tileSize, listener));
+  }
+
+  /**
+   * Returns a render of from.panZoom(x, y, zoomFactor), calculated tileSize x tileSize pixels at
+   * a time from the center outwards.
+   */
+  public static AsyncRender panZoom(Mandlebrot from, int x, int y, double zoomFactor,
+      int tileSize) {
+    return new AsyncRender((canceled, listener) ->
+        from.panZoom(x, y, zoomFactor, canceled, tileSize, listener));
+  }
+
+  public Flow.Publisher<Mandlebrot.Tile> tiles() {
+    return downstream -> {
+      TileSubscriber subscriber = new TileSubscriber(downstream);
+      subscribers.add(subscriber);
+      tiles.subscribe(subscriber);
+      if (result.isCancelled()) {
+        subscriber.cancelUpstream();
+      }
+    };
+  }
+
+  /**
+   * Starts the render on its own thread.
+   */
+  public CompletableFuture<Mandlebrot> start() {
+    return start(runnable -> {
+      Thread thread = new Thread(runnable, "AsyncRender");
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Starts the render on the given executor. The executor's thread waits for the calculation, so
+   * it shouldn't be one that other tasks depend on, such as the common ForkJoinPool.
+   */
+  public synchronized CompletableFuture<Mandlebrot> start(Executor executor) {
+    if (started) {
+      throw new IllegalStateException("Already started");
+    }
+    started = true;
+    executor.execute(this::run);
+    return result;
+  }
+
+  private void run() {
+    Mandlebrot m = null;
+    Throwable failure = null;
+    try {
+      m = calculation.calculate(result::isCancelled, (mandlebrot, tile, nanos) -> {
+        grid = mandlebrot;
+        tiles.submit(tile);
+      });
+      tiles.close();
+    } catch (Throwable t) {
+      failure = t;
+      tiles.closeExceptionally(t);
+    }
+    awaitSubscribers();
+    if (failure != null) {
+      result.completeExceptionally(failure);
+    } else if (result.complete(m)) {
+      return;
+    }
+    // No one else has the Mandlebrot, and none of its tiles can be delivered any more. If the
+    // calculation was canceled before any tile, it has already released the Mandlebrot itself.
+    Mandlebrot unowned = (m != null) ? m : grid;
+    if (unowned != null) {
+      unowned.release();
+    }
+  }
+
+  /**
+   * Waits until every subscriber is done with the tiles, or until the future is canceled, in which
+   * case every subscriber is finished with onError.
+   */
+  private void awaitSubscribers() {
+    CompletableFuture<?> allDone = CompletableFuture.allOf(subscribers.stream()
+        .map(subscriber -> subscriber.done).toArray(CompletableFuture[]::new));
+    CompletableFuture.anyOf(allDone, result).handle((v, t) -> null).join();
+    if (result.isCancelled()) {
+      // The publisher doesn't signal subscriptions that have been canceled.
+      for (TileSubscriber subscriber : subscribers) {
+        subscriber.onCanceled();
+      }
+    }
+  }
+
+  /**
+   * Passes tiles on to a subscriber, and lets the render cancel the subscription. Signals are
+   * passed on one at a time, and none after the subscriber has finished. done completes once the
+   * subscriber has finished and returned from its last signal.
+   */
+  private static final class TileSubscriber implements Flow.Subscriber<Mandlebrot.Tile> {
+    private final Flow.Subscriber<? super Mandlebrot.Tile> downstream;
+    private volatile Flow.Subscription upstream;
+    private volatile boolean upstreamCanceled;
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    // Guarded by this.
+    private boolean finished;
+    private boolean delivering;
+
+    TileSubscriber(Flow.Subscriber<? super Mandlebrot.Tile> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      upstream = subscription;
+      if (upstreamCanceled) {
+        subscription.cancel();
+      }
+      downstream.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+          subscription.cancel();
+          synchronized (TileSubscriber.this) {
+            finished = true;
+            // If the subscriber cancels from onNext, it's done once onNext returns.
+            if (!delivering) {
+              done.complete(null);
+            }
+          }
+        }
+      });
+    }
+
+    @Override
+    public synchronized void onNext(Mandlebrot.Tile tile) {
+      if (!finished) {
+        delivering = true;
+        try {
+          downstream.onNext(tile);
+        } finally {
+          delivering = false;
+          if (finished) {
+            done.complete(null);
+          }
+        }
+      }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+      if (!finished) {
+        finished = true;
+        try {
+          downstream.onError(t);
+        } finally {
+          done.complete(null);
+        }
+      }
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      if (!finished) {
+        finished = true;
+        try {
+          downstream.onComplete();
+        } finally {
+          done.complete(null);
+        }
+      }
+    }
+
+    void cancelUpstream() {
+      upstreamCanceled = true;
+      Flow.Subscription subscription = upstream;
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+
+    void onCanceled() {
+      onError(new CancellationException());
+    }
+  }
+}
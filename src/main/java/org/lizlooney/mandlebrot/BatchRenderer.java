@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Renders a zoom into a point, one PNG file per frame, without a display. Each frame is computed,
+ * colorized and written by a {@link RenderPipeline}, so the three overlap.
+ */
+public class BatchRenderer {
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length != 7) {
+      System.err.println("Usage: BatchRenderer <aCenter> <bCenter> <startSize> <zoomPerFrame> "
+          + "<frames> <sizeInPixels> <directory>");
+      System.exit(1);
+    }
+    double aCenter = Double.parseDouble(args[0]);
+    double bCenter = Double.parseDouble(args[1]);
+    double startSize = Double.parseDouble(args[2]);
+    double zoomPerFrame = Double.parseDouble(args[3]);
+    int frames = Integer.parseInt(args[4]);
+    int sizeInPixels = Integer.parseInt(args[5]);
+    File directory = new File(args[6]);
+    directory.mkdirs();
+
+    boolean useNativeCode = false;
+    try {
+      System.loadLibrary("mandlebrot_jni");
+      useNativeCode = true;
+    } catch (UnsatisfiedLinkError e) {
+      System.out.println("Native code is not available: " + e.getMessage());
+    }
+    boolean finalUseNativeCode = useNativeCode;
+    Kernel kernel = Kernel.parse(System.getProperty("mandlebrot.kernel", "mandlebrot"));
+    int numThreads = Integer.getInteger("mandlebrot.numThreads",
+        Runtime.getRuntime().availableProcessors());
+    ColorTable colorTable = new ColorTable(Mandlebrot.MAX_VALUE, Color::HSBtoRGB);
+    colorTable.fillDefault();
+
+    long start = System.nanoTime();
+    RenderPipeline<Integer> pipeline = new RenderPipeline<>("Batch", 2,
+        frame -> new Mandlebrot(kernel, finalUseNativeCode, numThreads, sizeInPixels,
+            aCenter, bCenter, startSize / Math.pow(zoomPerFrame, frame)),
+        (frame, m, pixels) -> colorTable.valuesToColors(m.asIntBuffer(), pixels, 0),
+        frame -> {
+          File file = new File(directory, String.format(Locale.ROOT, "frame-%05d.png", frame.job));
+          try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            PngEncoder.write(frame.image, numThreads, out);
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+          System.out.println(file + " " + frame.m.getRenderStats());
+          frame.recycle();
+          frame.m.release();
+        },
+        frame -> System.err.println("Frame " + frame + " failed"));
+    for (int frame = 0; frame < frames; frame++) {
+      pipeline.submit(frame);
+    }
+    pipeline.finish();
+    System.out.printf(Locale.ROOT, "%d frames in %.1f s%n", frames, (System.nanoTime() - start) / 1e9);
+  }
+}
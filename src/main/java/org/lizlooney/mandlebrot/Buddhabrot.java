@@ -0,0 +1,241 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders the Buddhabrot: the density of the orbits of random points c that escape the
+ * Mandlebrot set, counted at every point z of the orbit that falls in the view.
+ *
+ * <p>Each thread counts visits in its own grid, with no synchronization, and every MERGE_SAMPLES
+ * samples adds its grid to the shared density. The shared density is split into bands of rows
+ * with a lock each, and each thread starts merging at a different band, so threads rarely wait
+ * for each other.
+ *
+ * <p>Rendering can be stopped and started again any number of times; the counts keep
+ * accumulating. A snapshot of the density can be taken at any time.
+ */
+public class Buddhabrot {
+  // Points c are sampled from this square, which contains the whole Mandlebrot set.
+  private static final double SAMPLE_MIN = -2;
+  private static final double SAMPLE_RANGE = 4;
+  private static final int MERGE_SAMPLES = 100_000;
+  private static final int STRIPES = 64;
+
+  private final int sizeInPixels;
+  private final double aMin;
+  private final double bMin;
+  private final double pixelsPerUnit;
+  private final int maxIterations;
+  private final int numThreads;
+
+  private final long[] density;
+  private final Object[] stripeLocks = new Object[STRIPES];
+  private final int rowsPerStripe;
+  private final LongAdder samples = new LongAdder();
+  private final long seed = System.nanoTime();
+
+  // Guarded by this.
+  private Thread[] threads;
+  private volatile boolean running;
+  private long runningNanos;
+  private long startNanos;
+  private int generation;
+
+  public Buddhabrot(int sizeInPixels, double aCenter, double bCenter, double size,
+      int maxIterations, int numThreads) {
+    this.sizeInPixels = sizeInPixels;
+    this.pixelsPerUnit = sizeInPixels / size;
+    this.aMin = aCenter - size / 2;
+    this.bMin = bCenter - size / 2;
+    this.maxIterations = maxIterations;
+    this.numThreads = numThreads;
+    density = new long[sizeInPixels * sizeInPixels];
+    rowsPerStripe = (sizeInPixels + STRIPES - 1) / STRIPES;
+    for (int i = 0; i < STRIPES; i++) {
+      stripeLocks[i] = new Object();
+    }
+  }
+
+  public int getSizeInPixels() {
+    return sizeInPixels;
+  }
+
+  /**
+   * Starts the rendering threads, unless they are already running.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    startNanos = System.nanoTime();
+    generation++;
+    threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int threadNumber = i;
+      final SplittableRandom random = new SplittableRandom(seed + 1000003L * generation + i);
+      threads[i] = new Thread(() -> sample(threadNumber, random), "Buddhabrot-" + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Stops the rendering threads, after each has merged its counts into the density.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    threads = null;
+    runningNanos += System.nanoTime() - startNanos;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  private void sample(int threadNumber, SplittableRandom random) {
+    int[] counts = new int[density.length];
+    double[] orbitA = new double[maxIterations];
+    double[] orbitB = new double[maxIterations];
+    long samplesSinceMerge = 0;
+    while (running) {
+      double cA = SAMPLE_MIN + SAMPLE_RANGE * random.nextDouble();
+      double cB = SAMPLE_MIN + SAMPLE_RANGE * random.nextDouble();
+      samplesSinceMerge++;
+      if (!isKnownInterior(cA, cB)) {
+        int length = escapingOrbit(cA, cB, orbitA, orbitB);
+        for (int i = 0; i < length; i++) {
+          // Rounded down, not toward zero, so points just left of or above the view aren't
+          // counted in column or row 0.
+          int x = (int) Math.floor((orbitA[i] - aMin) * pixelsPerUnit);
+          int y = (int) Math.floor((orbitB[i] - bMin) * pixelsPerUnit);
+          if (x >= 0 && x < sizeInPixels && y >= 0 && y < sizeInPixels) {
+            counts[y * sizeInPixels + x]++;
+          }
+        }
+      }
+      if (samplesSinceMerge == MERGE_SAMPLES) {
+        merge(threadNumber, counts);
+        samples.add(samplesSinceMerge);
+        samplesSinceMerge = 0;
+      }
+    }
+    merge(threadNumber, counts);
+    samples.add(samplesSinceMerge);
+  }
+
+  /**
+   * Returns true if c is in the main cardioid or the period 2 bulb, whose orbits never escape.
+   */
+  private static boolean isKnownInterior(double cA, double cB) {
+    double q = (cA - 0.25) * (cA - 0.25) + cB * cB;
+    if (q * (q + (cA - 0.25)) <= 0.25 * cB * cB) {
+      return true;
+    }
+    return (cA + 1) * (cA + 1) + cB * cB <= 0.0625;
+  }
+
+  /**
+   * Stores the orbit of c in orbitA and orbitB and returns its length if it escapes within
+   * maxIterations, or returns 0 if it doesn't.
+   */
+  private int escapingOrbit(double cA, double cB, double[] orbitA, double[] orbitB) {
+    double zA = 0;
+    double zB = 0;
+    for (int i = 0; i < maxIterations; i++) {
+      double zA2 = zA * zA;
+      double zB2 = zB * zB;
+      // The same escape test as the kernels.
+      if (zA2 + zB2 >= 4) {
+        return i;
+      }
+      zB = 2 * zA * zB + cB;
+      zA = zA2 - zB2 + cA;
+      orbitA[i] = zA;
+      orbitB[i] = zB;
+    }
+    return 0;
+  }
+
+  private void merge(int threadNumber, int[] counts) {
+    for (int i = 0; i < STRIPES; i++) {
+      int stripe = (threadNumber + i) % STRIPES;
+      int from = Math.min(stripe * rowsPerStripe, sizeInPixels) * sizeInPixels;
+      int to = Math.min((stripe + 1) * rowsPerStripe, sizeInPixels) * sizeInPixels;
+      synchronized (stripeLocks[stripe]) {
+        for (int j = from; j < to; j++) {
+          density[j] += counts[j];
+        }
+      }
+    }
+    Arrays.fill(counts, 0);
+  }
+
+  public long getSamples() {
+    return samples.sum();
+  }
+
+  /**
+   * Returns the number of samples per second while the rendering threads were running.
+   */
+  public synchronized double getSamplesPerSecond() {
+    long nanos = runningNanos + (running ? System.nanoTime() - startNanos : 0);
+    return nanos == 0 ? 0 : getSamples() * 1e9 / nanos;
+  }
+
+  /**
+   * Returns a copy of the density merged so far. Counts that threads haven't merged yet are not
+   * included.
+   */
+  public long[] snapshot() {
+    long[] copy = new long[density.length];
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      int from = Math.min(stripe * rowsPerStripe, sizeInPixels) * sizeInPixels;
+      int to = Math.min((stripe + 1) * rowsPerStripe, sizeInPixels) * sizeInPixels;
+      synchronized (stripeLocks[stripe]) {
+        System.arraycopy(density, from, copy, from, to - from);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Converts a snapshot to gray levels, with the square root of the density relative to the
+   * densest pixel, storing them in colors.
+   */
+  public static void toColors(long[] snapshot, int[] colors) {
+    long max = 1;
+    for (long count : snapshot) {
+      max = Math.max(max, count);
+    }
+    double scale = 255 / Math.sqrt(max);
+    for (int i = 0; i < snapshot.length; i++) {
+      int gray = (int) (Math.sqrt(snapshot[i]) * scale);
+      colors[i] = (gray << 16) | (gray << 8) | gray;
+    }
+  }
+}
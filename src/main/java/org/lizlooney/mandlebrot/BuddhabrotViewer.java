@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+/**
+ * Shows a {@link Buddhabrot} as it renders, with a snapshot of the density every
+ * SNAPSHOT_INTERVAL_MS. The view and iteration limit come from the mandlebrot.buddhabrot.*
+ * system properties.
+ */
+public class BuddhabrotViewer {
+  private static final int SIZE = 1000;
+  private static final int SNAPSHOT_INTERVAL_MS = 500;
+
+  private final Buddhabrot buddhabrot;
+  private final int numThreads;
+  private final JFrame frame = new JFrame("Buddhabrot");
+  private final JButton startStopButton = new JButton("Stop");
+  private final JButton saveFileButton = new JButton("Save PNG file");
+  private final JLabel statsLabel = new JLabel();
+  private final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+  private final JPanel imagePanel = new JPanel() {
+    @Override
+    public void paint(Graphics g) {
+      super.paint(g);
+      g.drawImage(image, 0, 0, null);
+    }
+  };
+  private final Timer snapshotTimer = new Timer(SNAPSHOT_INTERVAL_MS, event -> showSnapshot());
+
+  BuddhabrotViewer(Buddhabrot buddhabrot, int numThreads) {
+    this.buddhabrot = buddhabrot;
+    this.numThreads = numThreads;
+
+    startStopButton.addActionListener(event -> {
+      if (buddhabrot.isRunning()) {
+        try {
+          buddhabrot.stop();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        snapshotTimer.stop();
+        showSnapshot();
+        startStopButton.setText("Resume");
+      } else {
+        buddhabrot.start();
+        snapshotTimer.start();
+        startStopButton.setText("Stop");
+      }
+    });
+    saveFileButton.addActionListener(event -> saveFile());
+
+    JPanel buttonPanel = new JPanel();
+    buttonPanel.add(startStopButton);
+    buttonPanel.add(saveFileButton);
+    buttonPanel.add(statsLabel);
+    imagePanel.setPreferredSize(new Dimension(SIZE, SIZE));
+    frame.add(buttonPanel, BorderLayout.NORTH);
+    frame.add(imagePanel, BorderLayout.CENTER);
+    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    frame.pack();
+    frame.setVisible(true);
+
+    buddhabrot.start();
+    snapshotTimer.start();
+  }
+
+  private void showSnapshot() {
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Buddhabrot.toColors(buddhabrot.snapshot(), pixels);
+    statsLabel.setText(String.format(Locale.ROOT, "%,d samples, %,.0f samples/s",
+        buddhabrot.getSamples(), buddhabrot.getSamplesPerSecond()));
+    imagePanel.repaint();
+  }
+
+  private void saveFile() {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setFileFilter(new FileNameExtensionFilter("PNG files", "png"));
+    if (chooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+      File file = chooser.getSelectedFile();
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        PngEncoder.write(image, numThreads, out);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    int numThreads = Integer.getInteger("mandlebrot.numThreads",
+        Runtime.getRuntime().availableProcessors());
+    double aCenter = Double.parseDouble(System.getProperty("mandlebrot.buddhabrot.aCenter", "-0.4"));
+    double bCenter = Double.parseDouble(System.getProperty("mandlebrot.buddhabrot.bCenter", "0"));
+    double size = Double.parseDouble(System.getProperty("mandlebrot.buddhabrot.size", "3.2"));
+    int maxIterations = Integer.getInteger("mandlebrot.buddhabrot.maxIterations", 1000);
+    Buddhabrot buddhabrot = new Buddhabrot(SIZE, aCenter, bCenter, size, maxIterations, numThreads);
+    SwingUtilities.invokeLater(() -> new BuddhabrotViewer(buddhabrot, numThreads));
+  }
+}
@@ -16,6 +16,8 @@
 
 package org.lizlooney.mandlebrot;
 
+import java.nio.IntBuffer;
+
 public class ColorTable {
   private final int[] table;
   private final ColorUtils colorUtils;
@@ -29,6 +31,13 @@ public class ColorTable {
     return table.length;
   }
 
+  /**
+   * Fills the table with the colors that Main starts with.
+   */
+  public void fillDefault() {
+    fill(new Hue(0, 360, 1), new Saturation(70, 100, 0), new Brightness(70, 100, 0));
+  }
+
   public void fill(Hue h, Saturation s, Brightness b) {
     for (int i = 0; i < table.length; i++) {
       table[i] = colorUtils.colorComponentsToRGB(h.hue(), s.saturation(), b.brightness());
@@ -50,6 +59,40 @@ public class ColorTable {
     return table[value - 1];
   }
 
+  /**
+   * Returns the index of the given value's color in the arrays returned by palette.
+   */
+  public int paletteIndex(int value) {
+    return value > table.length ? table.length + 1 : value;
+  }
+
+  /**
+   * Returns the colors of all values, indexed by paletteIndex, with the colors of values 1 to
+   * size() rotated by offset. Because an image of palette indices never changes, recoloring it
+   * only takes a new palette, no matter how many pixels it has.
+   */
+  public int[] palette(int offset) {
+    int[] palette = new int[table.length + 2];
+    palette[0] = valueToColor(0);
+    for (int i = 0; i < table.length; i++) {
+      palette[i + 1] = table[(i + offset) % table.length];
+    }
+    palette[table.length + 1] = valueToColor(Integer.MAX_VALUE);
+    return palette;
+  }
+
+  /**
+   * Converts all remaining values in the given buffer to colors, storing them in colors,
+   * starting at index 0. The given alpha bits are or'ed into each color.
+   */
+  public void valuesToColors(IntBuffer values, int[] colors, int alpha) {
+    int length = values.remaining();
+    values.get(colors, 0, length);
+    for (int i = 0; i < length; i++) {
+      colors[i] = alpha | valueToColor(colors[i]);
+    }
+  }
+
   interface ColorUtils {
     int colorComponentsToRGB(float h, float s, float b);
   }
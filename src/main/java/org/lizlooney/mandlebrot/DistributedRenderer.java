@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders a Mandlebrot by splitting it into tiles and sending them to any number of
+ * {@link RenderWorker} processes.
+ *
+ * Each worker has its own connection and takes tiles from a shared queue, so faster workers
+ * render more tiles. If a worker fails or times out, its tile goes back on the queue for another
+ * worker, and the connection is retried a few times before the worker is given up on.
+ *
+ * Whether the native code may use floats is decided once, here, for the whole image, so every
+ * tile is calculated the same way. The renderer and the workers should agree on whether native
+ * code is used; a worker without it always uses doubles.
+ */
+public class DistributedRenderer {
+  private static final int MAX_CONSECUTIVE_FAILURES = 3;
+  private static final long RETRY_DELAY_MILLIS = 1000;
+
+  private final List<InetSocketAddress> workers;
+  private final boolean useNativeCode;
+  private final int tileSize;
+  private final int timeoutMillis;
+
+  public DistributedRenderer(List<InetSocketAddress> workers, boolean useNativeCode, int tileSize,
+      int timeoutMillis) {
+    this.workers = workers;
+    this.useNativeCode = useNativeCode;
+    this.tileSize = tileSize;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public Mandlebrot render(Kernel kernel, double aCenter, double bCenter, double size, int sizeInPixels)
+      throws IOException {
+    long start = System.nanoTime();
+    // These must match the Mandlebrot constructor, so the tiles line up with a local render.
+    double pixelsPerUnit = sizeInPixels / size;
+    double aMin = aCenter - size / 2;
+    double bMin = bCenter - size / 2;
+    boolean useFloat = Mandlebrot.shouldUseFloat(kernel, useNativeCode, sizeInPixels,
+        aMin, bMin, pixelsPerUnit, Mandlebrot.MAX_VALUE);
+
+    int[] values = new int[sizeInPixels * sizeInPixels];
+    BlockingQueue<int[]> tiles = new LinkedBlockingQueue<>();
+    for (int y = 0; y < sizeInPixels; y += tileSize) {
+      for (int x = 0; x < sizeInPixels; x += tileSize) {
+        tiles.add(new int[] {x, y});
+      }
+    }
+    AtomicInteger remaining = new AtomicInteger(tiles.size());
+
+    long[] workerBusyNanos = new long[workers.size()];
+    Thread[] threads = new Thread[workers.size()];
+    for (int i = 0; i < threads.length; i++) {
+      final int workerNumber = i;
+      threads[i] = new Thread(() -> workerLoop(workerNumber, kernel, tiles, remaining, workerBusyNanos,
+          values, sizeInPixels, aMin, bMin, pixelsPerUnit, useFloat));
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      try {
+        threads[i].join();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (remaining.get() > 0) {
+      throw new IOException("All workers failed; " + remaining.get() + " tiles were not rendered");
+    }
+    RenderStats renderStats = new RenderStats("distributed", kernel, IntBuffer.wrap(values), Mandlebrot.MAX_VALUE, System.nanoTime() - start,
+        workerBusyNanos);
+    return Mandlebrot.fromValues(kernel, false, Runtime.getRuntime().availableProcessors(),
+        sizeInPixels, aCenter, bCenter, size, values, renderStats);
+  }
+
+  private void workerLoop(int workerNumber, Kernel kernel, BlockingQueue<int[]> tiles, AtomicInteger remaining,
+      long[] workerBusyNanos, int[] values, int sizeInPixels,
+      double aMin, double bMin, double pixelsPerUnit, boolean useFloat) {
+    InetSocketAddress address = workers.get(workerNumber);
+    int failures = 0;
+    while (remaining.get() > 0) {
+      try (Socket socket = new Socket()) {
+        socket.connect(address, timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (remaining.get() > 0) {
+          int[] tile = tiles.poll(100, TimeUnit.MILLISECONDS);
+          if (tile == null) {
+            // The other workers have the remaining tiles, but one of them may fail.
+            continue;
+          }
+          int x = tile[0];
+          int y = tile[1];
+          long tileStart = System.nanoTime();
+          int[] tileValues;
+          try {
+            RenderWorker.writeRequest(out, kernel, aMin, bMin, pixelsPerUnit, x, y, tileSize, useFloat);
+            tileValues = RenderWorker.readValues(in, tileSize);
+          } catch (IOException e) {
+            tiles.add(tile);
+            throw e;
+          }
+          workerBusyNanos[workerNumber] += System.nanoTime() - tileStart;
+
+          // Tiles along the right and bottom edges may extend past the image.
+          int width = Math.min(tileSize, sizeInPixels - x);
+          int height = Math.min(tileSize, sizeInPixels - y);
+          for (int row = 0; row < height; row++) {
+            System.arraycopy(tileValues, row * tileSize, values, (y + row) * sizeInPixels + x, width);
+          }
+          remaining.decrementAndGet();
+          failures = 0;
+        }
+      } catch (IOException e) {
+        failures++;
+        System.err.println("Worker " + address + " failed (" + failures + "): " + e);
+        if (failures >= MAX_CONSECUTIVE_FAILURES) {
+          System.err.println("Giving up on worker " + address);
+          return;
+        }
+        try {
+          Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 6) {
+      System.err.println("Usage: DistributedRenderer <host:port,...> <aCenter> <bCenter> <size> "
+          + "<sizeInPixels> <file.png>");
+      System.exit(1);
+    }
+    List<InetSocketAddress> workers = new ArrayList<>();
+    for (String worker : args[0].split(",")) {
+      int colon = worker.lastIndexOf(':');
+      workers.add(new InetSocketAddress(worker.substring(0, colon),
+          Integer.parseInt(worker.substring(colon + 1))));
+    }
+    double aCenter = Double.parseDouble(args[1]);
+    double bCenter = Double.parseDouble(args[2]);
+    double size = Double.parseDouble(args[3]);
+    int sizeInPixels = Integer.parseInt(args[4]);
+    File file = new File(args[5]);
+
+    Kernel kernel = Kernel.parse(System.getProperty("mandlebrot.kernel", "mandlebrot"));
+    boolean useNativeCode = Boolean.getBoolean("mandlebrot.useNativeCode");
+    if (useNativeCode) {
+      System.loadLibrary("mandlebrot_jni");
+    }
+    int tileSize = Integer.getInteger("mandlebrot.tileSize", 256);
+    int timeoutMillis = Integer.getInteger("mandlebrot.timeoutMillis", 5 * 60 * 1000);
+    Mandlebrot m = new DistributedRenderer(workers, useNativeCode, tileSize, timeoutMillis)
+        .render(kernel, aCenter, bCenter, size, sizeInPixels);
+    System.out.println(m.getRenderStats());
+
+    ColorTable colorTable = new ColorTable(Mandlebrot.MAX_VALUE, Color::HSBtoRGB);
+    colorTable.fillDefault();
+    BufferedImage image = new BufferedImage(sizeInPixels, sizeInPixels, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    colorTable.valuesToColors(m.asIntBuffer(), pixels, 0);
+    ImageIO.write(image, "PNG", file);
+  }
+}
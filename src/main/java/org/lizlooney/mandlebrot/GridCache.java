@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A persistent cache of calculated values, shared by every process that uses the same directory.
+ * Each entry is a file named by the SHA-256 of its key, which covers everything that determines
+ * the values: the kernel, the engine, the size in pixels, the viewport and MAX_VALUE.
+ *
+ * <p>Entries are written to a temporary file and renamed into place, so a reader in any process
+ * sees either a whole entry or none. Once the directory grows past its size limit, the least
+ * recently used entries are deleted.
+ */
+class GridCache {
+  private static final int MAGIC = 0x4d424752; // "MBGR"
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".grid";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Temporary files older than this were left behind by a process that died while writing.
+  private static final long STALE_TEMP_FILE_MILLIS = 60 * 60 * 1000;
+
+  private final Path directory;
+  private final long maxBytes;
+
+  GridCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a cache in the directory named by the mandlebrot.cacheDir system property, which
+   * defaults to .mandlebrot/cache in the user's home directory, limited to
+   * mandlebrot.diskCacheBytes bytes.
+   */
+  static GridCache fromSystemProperties() {
+    Path directory = Paths.get(System.getProperty("mandlebrot.cacheDir",
+        Paths.get(System.getProperty("user.home"), ".mandlebrot", "cache").toString()));
+    long maxBytes = Long.getLong("mandlebrot.diskCacheBytes", 256L * 1024 * 1024);
+    return new GridCache(directory, maxBytes);
+  }
+
+  /**
+   * Returns the Mandlebrot for the given viewport from the cache if it's there. Otherwise, calls
+   * render and stores the result in the cache.
+   */
+  Mandlebrot get(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, Supplier<Mandlebrot> render) {
+    Mandlebrot m = find(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size);
+    if (m != null) {
+      return m;
+    }
+    m = render.get();
+    String key = key(kernel, useNativeCode, sizeInPixels, aCenter, bCenter, size);
+    write(directory.resolve(hash(key) + SUFFIX), key, m);
+    return m;
+  }
+
+  /**
+   * Returns the Mandlebrot for the given viewport from the cache, or null if it isn't there.
+   */
+  Mandlebrot find(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size) {
+    String key = key(kernel, useNativeCode, sizeInPixels, aCenter, bCenter, size);
+    long start = System.nanoTime();
+    int[] values = read(directory.resolve(hash(key) + SUFFIX), key, sizeInPixels * sizeInPixels);
+    if (values == null) {
+      return null;
+    }
+    RenderStats renderStats = new RenderStats("disk cache", kernel, IntBuffer.wrap(values), Mandlebrot.MAX_VALUE,
+        System.nanoTime() - start, new long[0]);
+    return Mandlebrot.fromValues(kernel, useNativeCode, numThreads,
+        sizeInPixels, aCenter, bCenter, size, values, renderStats);
+  }
+
+  private static String key(Kernel kernel, boolean useNativeCode,
+      int sizeInPixels, double aCenter, double bCenter, double size) {
+    return kernel + " " + (useNativeCode ? "native" : "java") + " " + sizeInPixels
+        + " " + Double.doubleToLongBits(aCenter)
+        + " " + Double.doubleToLongBits(bCenter)
+        + " " + Double.doubleToLongBits(size)
+        + " " + Mandlebrot.MAX_VALUE;
+  }
+
+  private static String hash(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private int[] read(Path path, String key, int count) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+      if (buffer.remaining() != 12 + keyBytes.length + 4 * count
+          || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || buffer.getInt() != keyBytes.length) {
+        return null;
+      }
+      byte[] storedKey = new byte[keyBytes.length];
+      buffer.get(storedKey);
+      if (!new String(storedKey, StandardCharsets.UTF_8).equals(key)) {
+        return null;
+      }
+      int[] values = new int[count];
+      buffer.asIntBuffer().get(values);
+      touch(path);
+      return values;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private void write(Path path, String key, Mandlebrot m) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    Path temp = null;
+    try {
+      Files.createDirectories(directory);
+      temp = Files.createTempFile(directory, "grid", TEMP_SUFFIX);
+      ByteBuffer buffer = ByteBuffer.allocate(12 + keyBytes.length + 4 * m.getSizeInPixels() * m.getSizeInPixels());
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(keyBytes.length).put(keyBytes);
+      buffer.asIntBuffer().put(m.asIntBuffer());
+      Files.write(temp, buffer.array());
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+      evict();
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private static void touch(Path path) {
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Another process may have evicted it; that only costs a recalculation later.
+    }
+  }
+
+  private static final class Entry {
+    final Path path;
+    final long bytes;
+    final long lastUsedMillis;
+
+    Entry(Path path, long bytes, long lastUsedMillis) {
+      this.path = path;
+      this.bytes = bytes;
+      this.lastUsedMillis = lastUsedMillis;
+    }
+  }
+
+  private void evict() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    long totalBytes = 0;
+    long now = System.currentTimeMillis();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        try {
+          long lastModified = Files.getLastModifiedTime(path).toMillis();
+          if (name.endsWith(SUFFIX)) {
+            long bytes = Files.size(path);
+            entries.add(new Entry(path, bytes, lastModified));
+            totalBytes += bytes;
+          } else if (name.endsWith(TEMP_SUFFIX) && now - lastModified > STALE_TEMP_FILE_MILLIS) {
+            Files.deleteIfExists(path);
+          }
+        } catch (NoSuchFileException e) {
+          // Another process deleted it while we were looking.
+        }
+      }
+    }
+    entries.sort(Comparator.comparingLong(entry -> entry.lastUsedMillis));
+    for (Entry entry : entries) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      // Readers that already have the file open can still finish reading it.
+      Files.deleteIfExists(entry.path);
+      totalBytes -= entry.bytes;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Buffers of values, kept for reuse once the Mandlebrots they belonged to have been released, so
+ * that rendering one view after another doesn't allocate a new grid each time. Buffers are kept
+ * by size and by whether they are direct, up to MAX_FREE_PER_SIZE of each.
+ *
+ * <p>A buffer belongs to exactly one Mandlebrot from acquire until release. Whoever owns that
+ * Mandlebrot (a history, a cache, a prefetcher) calls Mandlebrot.release when it drops it and
+ * nothing else will read it.
+ */
+final class GridPool {
+  private static final int MAX_FREE_PER_SIZE = 4;
+
+  // Guarded by GridPool.class.
+  private static final Map<Long, ArrayDeque<IntBuffer>> free = new HashMap<>();
+  private static long allocations;
+  private static long reuses;
+
+  private GridPool() {
+  }
+
+  /**
+   * Returns a buffer of count values, whose contents are left over from its previous use. The
+   * native code gets a direct buffer, so that it can write the values where they will stay,
+   * without GetIntArrayElements copying them in and out; otherwise the buffer wraps an array.
+   */
+  static IntBuffer acquire(boolean direct, int count) {
+    synchronized (GridPool.class) {
+      ArrayDeque<IntBuffer> buffers = free.get(key(direct, count));
+      if (buffers != null && !buffers.isEmpty()) {
+        reuses++;
+        return buffers.pop();
+      }
+      allocations++;
+    }
+    if (direct) {
+      return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+    return IntBuffer.wrap(new int[count]);
+  }
+
+  static synchronized void release(IntBuffer buffer) {
+    long key = key(buffer.isDirect(), buffer.capacity());
+    ArrayDeque<IntBuffer> buffers = free.get(key);
+    if (buffers == null) {
+      buffers = new ArrayDeque<>();
+      free.put(key, buffers);
+    }
+    if (buffers.size() < MAX_FREE_PER_SIZE) {
+      buffers.push(buffer);
+    }
+  }
+
+  private static long key(boolean direct, int count) {
+    return direct ? -1L - count : count;
+  }
+
+  /**
+   * Returns how many buffers have been allocated, and how many reused, so far.
+   */
+  static synchronized String stats() {
+    return allocations + " allocated, " + reuses + " reused";
+  }
+}
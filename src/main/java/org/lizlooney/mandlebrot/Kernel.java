@@ -0,0 +1,386 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+/**
+ * An escape-time formula. A Kernel calculates, for each pixel, how many iterations it takes for
+ * z to escape the circle of radius 2, or Integer.MAX_VALUE if it doesn't escape within maxValue
+ * iterations.
+ *
+ * Each subclass has its own copy of the row loop in calculateRow, so that the call to
+ * calculateValue in each loop only ever sees one class and is inlined by the JIT. Adding a
+ * kernel doesn't slow down the others.
+ */
+public abstract class Kernel {
+  public static final Kernel MANDLEBROT = new MandlebrotKernel();
+
+  // These identify the formula and its parameters to the native code, and must match the
+  // kernel ids in mandlebrot.cc.
+  static final int MANDLEBROT_ID = 0;
+  static final int JULIA_ID = 1;
+  static final int MULTIBROT_ID = 2;
+  static final int BURNING_SHIP_ID = 3;
+
+  final int id;
+  final double paramA;
+  final double paramB;
+
+  private Kernel(int id, double paramA, double paramB) {
+    this.id = id;
+    this.paramA = paramA;
+    this.paramB = paramB;
+  }
+
+  public static Kernel julia(double cA, double cB) {
+    return new JuliaKernel(cA, cB);
+  }
+
+  public static Kernel multibrot(int exponent) {
+    if (exponent < 2) {
+      throw new IllegalArgumentException("exponent must be at least 2");
+    }
+    return exponent == 2 ? MANDLEBROT : new MultibrotKernel(exponent);
+  }
+
+  public static Kernel burningShip() {
+    return new BurningShipKernel();
+  }
+
+  /**
+   * Parses the string returned by toString, for example "mandlebrot", "julia:-0.8,0.156",
+   * "multibrot:3" or "burningship".
+   */
+  public static Kernel parse(String s) {
+    String[] nameAndParams = s.split(":", 2);
+    try {
+      switch (nameAndParams[0]) {
+        case "mandlebrot":
+          return MANDLEBROT;
+        case "julia":
+          String[] c = nameAndParams[1].split(",");
+          return julia(Double.parseDouble(c[0]), Double.parseDouble(c[1]));
+        case "multibrot":
+          return multibrot(Integer.parseInt(nameAndParams[1]));
+        case "burningship":
+          return burningShip();
+      }
+    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+      // Fall through.
+    }
+    throw new IllegalArgumentException("Unrecognized kernel: " + s);
+  }
+
+  abstract int calculateValue(double cA, double cB, int maxValue);
+
+  /**
+   * Like calculateValue for the pixel (pA, pB), but starts at iteration from with z taken from
+   * z[zIndex] and z[zIndex + 1], and if z doesn't escape, stores it back there. With from 0 and z
+   * equal to the pixel, the result is exactly that of calculateValue, and continuing from the
+   * stored z with a higher maxValue gives exactly the value calculateValue would have.
+   */
+  abstract int iterate(double pA, double pB, double[] z, int zIndex, int from, int maxValue);
+
+  /**
+   * Calculates the values of width pixels in a row, storing them in values starting at offset.
+   * The real part of pixel x is aMin + (xStart + x) / pixelsPerUnit.
+   */
+  abstract void calculateRow(int[] values, int offset, int width,
+      double aMin, int xStart, double pixelsPerUnit, double cB, int maxValue);
+
+  /**
+   * Returns true if the value at (cA, -cB) is always exactly the value at (cA, cB), so that the
+   * image is its own mirror image across the real axis.
+   */
+  boolean isConjugateSymmetric() {
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Kernel)) {
+      return false;
+    }
+    Kernel that = (Kernel) o;
+    return id == that.id && paramA == that.paramA && paramB == that.paramB;
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * id + hashCode(paramA)) * 31 + hashCode(paramB);
+  }
+
+  private static int hashCode(double d) {
+    long bits = Double.doubleToLongBits(d);
+    return (int) (bits ^ (bits >>> 32));
+  }
+
+  private static final class MandlebrotKernel extends Kernel {
+    MandlebrotKernel() {
+      super(MANDLEBROT_ID, 0, 0);
+    }
+
+    @Override
+    int calculateValue(double cA, double cB, int maxValue) {
+      double zA = cA;
+      double zB = cB;
+      for (int i = 0; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * zA * zB + cB;
+        zA = nextA;
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    int iterate(double cA, double cB, double[] z, int zIndex, int from, int maxValue) {
+      double zA = z[zIndex];
+      double zB = z[zIndex + 1];
+      for (int i = from; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * zA * zB + cB;
+        zA = nextA;
+      }
+      z[zIndex] = zA;
+      z[zIndex + 1] = zB;
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    void calculateRow(int[] values, int offset, int width,
+        double aMin, int xStart, double pixelsPerUnit, double cB, int maxValue) {
+      for (int x = 0; x < width; x++) {
+        double cA = aMin + (xStart + x) / pixelsPerUnit;
+        values[offset + x] = calculateValue(cA, cB, maxValue);
+      }
+    }
+
+    @Override
+    boolean isConjugateSymmetric() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "mandlebrot";
+    }
+  }
+
+  private static final class JuliaKernel extends Kernel {
+    JuliaKernel(double cA, double cB) {
+      super(JULIA_ID, cA, cB);
+    }
+
+    // Here the pixel is the starting value of z, and c is fixed.
+    @Override
+    int calculateValue(double zA, double zB, int maxValue) {
+      double cA = paramA;
+      double cB = paramB;
+      for (int i = 0; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * zA * zB + cB;
+        zA = nextA;
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    int iterate(double pA, double pB, double[] z, int zIndex, int from, int maxValue) {
+      double cA = paramA;
+      double cB = paramB;
+      double zA = z[zIndex];
+      double zB = z[zIndex + 1];
+      for (int i = from; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * zA * zB + cB;
+        zA = nextA;
+      }
+      z[zIndex] = zA;
+      z[zIndex + 1] = zB;
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    void calculateRow(int[] values, int offset, int width,
+        double aMin, int xStart, double pixelsPerUnit, double zB, int maxValue) {
+      for (int x = 0; x < width; x++) {
+        double zA = aMin + (xStart + x) / pixelsPerUnit;
+        values[offset + x] = calculateValue(zA, zB, maxValue);
+      }
+    }
+
+    @Override
+    boolean isConjugateSymmetric() {
+      // A Julia set is always symmetric about the origin, but only symmetric across the real axis
+      // if c is real.
+      return paramB == 0;
+    }
+
+    @Override
+    public String toString() {
+      return "julia:" + paramA + "," + paramB;
+    }
+  }
+
+  private static final class MultibrotKernel extends Kernel {
+    private final int exponent;
+
+    MultibrotKernel(int exponent) {
+      super(MULTIBROT_ID, exponent, 0);
+      this.exponent = exponent;
+    }
+
+    @Override
+    int calculateValue(double cA, double cB, int maxValue) {
+      double zA = cA;
+      double zB = cB;
+      for (int i = 0; i <= maxValue; i++) {
+        if (zA * zA + zB * zB >= 4) {
+          return i;
+        }
+        // z^exponent by repeated multiplication.
+        double pA = zA;
+        double pB = zB;
+        for (int e = 1; e < exponent; e++) {
+          double nextPA = pA * zA - pB * zB;
+          pB = pA * zB + pB * zA;
+          pA = nextPA;
+        }
+        zA = pA + cA;
+        zB = pB + cB;
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    int iterate(double cA, double cB, double[] z, int zIndex, int from, int maxValue) {
+      double zA = z[zIndex];
+      double zB = z[zIndex + 1];
+      for (int i = from; i <= maxValue; i++) {
+        if (zA * zA + zB * zB >= 4) {
+          return i;
+        }
+        double pA = zA;
+        double pB = zB;
+        for (int e = 1; e < exponent; e++) {
+          double nextPA = pA * zA - pB * zB;
+          pB = pA * zB + pB * zA;
+          pA = nextPA;
+        }
+        zA = pA + cA;
+        zB = pB + cB;
+      }
+      z[zIndex] = zA;
+      z[zIndex + 1] = zB;
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    void calculateRow(int[] values, int offset, int width,
+        double aMin, int xStart, double pixelsPerUnit, double cB, int maxValue) {
+      for (int x = 0; x < width; x++) {
+        double cA = aMin + (xStart + x) / pixelsPerUnit;
+        values[offset + x] = calculateValue(cA, cB, maxValue);
+      }
+    }
+
+    @Override
+    boolean isConjugateSymmetric() {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "multibrot:" + exponent;
+    }
+  }
+
+  private static final class BurningShipKernel extends Kernel {
+    BurningShipKernel() {
+      super(BURNING_SHIP_ID, 0, 0);
+    }
+
+    @Override
+    int calculateValue(double cA, double cB, int maxValue) {
+      double zA = cA;
+      double zB = cB;
+      for (int i = 0; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * Math.abs(zA * zB) + cB;
+        zA = nextA;
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    int iterate(double cA, double cB, double[] z, int zIndex, int from, int maxValue) {
+      double zA = z[zIndex];
+      double zB = z[zIndex + 1];
+      for (int i = from; i <= maxValue; i++) {
+        double zAzA = zA * zA;
+        double zBzB = zB * zB;
+        if (zAzA + zBzB >= 4) {
+          return i;
+        }
+        double nextA = zAzA - zBzB + cA;
+        zB = 2 * Math.abs(zA * zB) + cB;
+        zA = nextA;
+      }
+      z[zIndex] = zA;
+      z[zIndex + 1] = zB;
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    void calculateRow(int[] values, int offset, int width,
+        double aMin, int xStart, double pixelsPerUnit, double cB, int maxValue) {
+      for (int x = 0; x < width; x++) {
+        double cA = aMin + (xStart + x) / pixelsPerUnit;
+        values[offset + x] = calculateValue(cA, cB, maxValue);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "burningship";
+    }
+  }
+}
@@ -23,26 +23,44 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
+import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.AffineTransform;
+import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSpinner;
 import javax.swing.SpinnerModel;
@@ -50,15 +68,13 @@ import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class Main {
-  private static final boolean USE_NATIVE_CODE = false;
-  private static final int NUM_THREADS = 16;
-
   private static final int SIZE = 1000;
   private static final int PAN_CENTER = SIZE / 2;
   private static final int PAN_UP = SIZE / 10;
@@ -67,6 +83,32 @@ public class Main {
   private static final int PAN_RIGHT = SIZE * 9 / 10;
   private static final double ZOOM_OUT = 4;
   private static final double ZOOM_IN = 1 / ZOOM_OUT;
+  private static final int ANTIALIAS_SAMPLES_PER_AXIS = 4;
+  private static final int ANTIALIAS_THRESHOLD = 2;
+  private static final long PREFETCH_MEMORY_BUDGET = 64L << 20;
+  // While the user drags or zooms with the wheel, each preview is calculated within this budget.
+  // Once there has been no input for REFINE_DELAY_MS, the view is rendered at full quality.
+  private static final long FRAME_BUDGET_NANOS = 16_000_000;
+  private static final int REFINE_DELAY_MS = 200;
+  // One notch of the mouse wheel zooms by this factor.
+  private static final double WHEEL_ZOOM_FACTOR = 1.25;
+  // When cycling colors, the palette is rotated by one entry this often.
+  private static final int COLOR_CYCLE_INTERVAL_MS = 16;
+  // The back button goes back through at most this many views. Older views are released, so their
+  // grids can be reused.
+  private static final int MAX_HISTORY = 32;
+  // The moves to prefetch, most likely first.
+  private static final List<Prefetcher.Move> LIKELY_MOVES = Arrays.asList(
+      new Prefetcher.Move(PAN_CENTER, PAN_CENTER, ZOOM_IN),
+      new Prefetcher.Move(PAN_CENTER, PAN_UP, 1.0),
+      new Prefetcher.Move(PAN_CENTER, PAN_DOWN, 1.0),
+      new Prefetcher.Move(PAN_LEFT, PAN_CENTER, 1.0),
+      new Prefetcher.Move(PAN_RIGHT, PAN_CENTER, 1.0),
+      new Prefetcher.Move(PAN_CENTER, PAN_CENTER, ZOOM_OUT),
+      new Prefetcher.Move(PAN_LEFT, PAN_UP, 1.0),
+      new Prefetcher.Move(PAN_RIGHT, PAN_UP, 1.0),
+      new Prefetcher.Move(PAN_LEFT, PAN_DOWN, 1.0),
+      new Prefetcher.Move(PAN_RIGHT, PAN_DOWN, 1.0));
 
   private final JFrame frame = new JFrame("Mandlebrot");
   private final JButton backButton = new JButton("<");
@@ -90,17 +132,82 @@ public class Main {
   private final JSpinner bMin = new JSpinner(new SpinnerNumberModel(70., 0., 100., 1.));
   private final JSpinner bMax = new JSpinner(new SpinnerNumberModel(100., 0., 100., 1.));
   private final JSpinner bDelta = new JSpinner(new SpinnerNumberModel(0., 0., 100., 1.));
-  private final JPanel mandlebrotPanel = new MandlebrotPanel();
+  private final MandlebrotPanel mandlebrotPanel = new MandlebrotPanel();
   private final JLabel mandlebrotLabel = new JLabel();
+  private final JCheckBox antialiasCheckBox = new JCheckBox("Antialias");
+  private final JLabel antialiasLabel = new JLabel();
+  private final JCheckBox cycleColorsCheckBox = new JCheckBox("Cycle colors");
+  private final JCheckBox tileCostsCheckBox = new JCheckBox("Tile costs");
   private final JButton saveFileButton = new JButton("Save image file");
+  private final Antialiaser antialiaser = new Antialiaser(ANTIALIAS_SAMPLES_PER_AXIS, ANTIALIAS_THRESHOLD);
   private final ColorTable colorTable;
+  // The views that the back button goes back through. Main owns these, and releases them when
+  // they are dropped.
   private final Deque<Mandlebrot> mStack = new ArrayDeque<>();
-  private RenderedImage renderedImage;
+  // Every view that the user goes to is looked up in, or stored in, the disk cache.
+  private final GridCache gridCache = GridCache.fromSystemProperties();
+  private final Prefetcher prefetcher = new Prefetcher(PREFETCH_MEMORY_BUDGET, gridCache);
+  private final Tuning tuning;
+  private final PreviewScheduler previewScheduler;
+  private final Timer refineTimer = new Timer(REFINE_DELAY_MS, event -> refine());
+  // The view while it is being changed by dragging or the mouse wheel; it isn't on mStack until
+  // it has been refined.
+  private boolean viewChanging;
+  private double viewACenter;
+  private double viewBCenter;
+  private double viewSize;
+  private Point dragPoint;
+  private Mandlebrot preview;
+  // Preview images, by size in pixels. Previews come in only a few sizes, so these are reused.
+  private final Map<Integer, BufferedImage> previewImages = new HashMap<>();
+  // Refined views go through this pipeline, so one is calculated while the one before it is
+  // colorized, and neither is done on the EDT.
+  private final RenderPipeline<RefineJob> refinePipeline;
+  private RefineJob refineJob;
+  private volatile ColorSnapshot colorSnapshot;
+  // While a PanZoomWorker is running, the tiles it has finished so far, drawn over the previous
+  // image moved and scaled to where it would be in the new view.
+  private BufferedImage partialImage;
+  private boolean showPartialImage;
+  private final BufferedImage[] imageBuffers = new BufferedImage[2];
+  private int backBufferIndex;
+  private int colorTableVersion;
+  // The rendered image is valid for this Mandlebrot, color table version and antialias setting.
+  private Mandlebrot renderedMandlebrot;
+  private int renderedColorTableVersion;
+  private boolean renderedAntialias;
+  private BufferedImage renderedImage;
+  // Unless antialiasing is on, the image is kept as palette indices, which are only calculated
+  // once per Mandlebrot. Changing or cycling the colors takes a new palette and a lookup of each
+  // pixel's index in it, with none of the work of turning values into colors.
+  private final short[] paletteIndices = new short[SIZE * SIZE];
+  private Mandlebrot indexedMandlebrot;
+  private int paletteOffset;
+  private BufferedImage paletteImage;
+  // The refine pipeline's frame whose image is paletteImage, or null if Main allocated it.
+  private RenderPipeline.Frame<RefineJob> paletteImageFrame;
+  // The palette image is valid for this Mandlebrot, color table version and palette offset.
+  private Mandlebrot paletteImageMandlebrot;
+  private int paletteImageColorTableVersion;
+  private int paletteImageOffset;
+  private final Timer colorCycleTimer = new Timer(COLOR_CYCLE_INTERVAL_MS, event -> cycleColors());
+  // The cost of each tile of tileCostsMandlebrot, shown over it while tileCostsCheckBox is
+  // selected. Views that weren't calculated a tile at a time are calculated again to measure them.
+  private TileCosts tileCosts;
+  private Mandlebrot tileCostsMandlebrot;
+  private TileCostsWorker tileCostsWorker;
   private final List<JComponent> components = new ArrayList<>();
 
-  Main() {
+  Main(Tuning tuning) {
+    this.tuning = tuning;
+    previewScheduler = new PreviewScheduler(tuning.useNativeCode, tuning.numThreads,
+        SIZE, FRAME_BUDGET_NANOS, m -> SwingUtilities.invokeLater(() -> onPreview(m)));
     colorTable = new ColorTable(Mandlebrot.MAX_VALUE, (h, s, b) -> Color.HSBtoRGB((float) h, (float) s, (float) b));
     fillColorTable();
+    refineTimer.setRepeats(false);
+    refinePipeline = new RenderPipeline<>("Refine", 1, this::computeRefined, this::colorizeRefined,
+        frame -> SwingUtilities.invokeLater(() -> onRefined(frame)),
+        job -> SwingUtilities.invokeLater(() -> onRefineFailed(job)));
 
     components.add(backButton);
     components.add(upLeftButton);
@@ -123,6 +230,9 @@ public class Main {
     components.add(bMax);
     components.add(bDelta);
     components.add(mandlebrotPanel);
+    components.add(antialiasCheckBox);
+    components.add(cycleColorsCheckBox);
+    components.add(tileCostsCheckBox);
     components.add(saveFileButton);
 
     addListeners();
@@ -133,8 +243,11 @@ public class Main {
 
   private void addListeners() {
     backButton.addActionListener(event -> {
-      if (mStack.size() > 1) {
-        mStack.removeLast();
+      if (viewChanging) {
+        cancelViewChange();
+        onMandlebrotChanged();
+      } else if (mStack.size() > 1) {
+        mStack.removeLast().release();
         onMandlebrotChanged();
       }
     });
@@ -160,34 +273,120 @@ public class Main {
     bMax.addChangeListener(event -> colorControlPanelChanged());
     bDelta.addChangeListener(event -> colorControlPanelChanged());
 
-    mandlebrotPanel.addMouseListener(new MouseAdapter() {
+    MouseAdapter mouseAdapter = new MouseAdapter() {
       @Override
       public void mouseClicked(MouseEvent event) {
         if (!mandlebrotPanel.isEnabled()) {
           return;
         }
         if (event.getClickCount() == 2 && event.getButton() == MouseEvent.BUTTON1) {
-          new PanZoomWorker(event.getX(), event.getY(), ZOOM_IN).execute();
+          panZoom(event.getX(), event.getY(), ZOOM_IN);
+        }
+      }
+
+      @Override
+      public void mousePressed(MouseEvent event) {
+        if (mandlebrotPanel.isEnabled() && event.getButton() == MouseEvent.BUTTON1) {
+          dragPoint = event.getPoint();
+        }
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent event) {
+        if (dragPoint == null) {
+          return;
         }
+        startViewChange();
+        // The image follows the mouse, so the center moves the other way.
+        viewACenter -= (event.getX() - dragPoint.x) * viewSize / SIZE;
+        viewBCenter -= (event.getY() - dragPoint.y) * viewSize / SIZE;
+        dragPoint = event.getPoint();
+        onViewChanged();
       }
+
+      @Override
+      public void mouseReleased(MouseEvent event) {
+        if (dragPoint != null) {
+          dragPoint = null;
+          if (viewChanging) {
+            refineTimer.restart();
+          }
+        }
+      }
+
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent event) {
+        if (!mandlebrotPanel.isEnabled()) {
+          return;
+        }
+        startViewChange();
+        // Zoom about the point under the mouse, so that it stays under the mouse.
+        double a = viewACenter + (event.getX() - SIZE / 2.0) * viewSize / SIZE;
+        double b = viewBCenter + (event.getY() - SIZE / 2.0) * viewSize / SIZE;
+        viewSize *= Math.pow(WHEEL_ZOOM_FACTOR, event.getPreciseWheelRotation());
+        viewACenter = a - (event.getX() - SIZE / 2.0) * viewSize / SIZE;
+        viewBCenter = b - (event.getY() - SIZE / 2.0) * viewSize / SIZE;
+        onViewChanged();
+      }
+    };
+    mandlebrotPanel.addMouseListener(mouseAdapter);
+    mandlebrotPanel.addMouseMotionListener(mouseAdapter);
+    mandlebrotPanel.addMouseWheelListener(mouseAdapter);
+
+    antialiasCheckBox.addActionListener(event -> mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE));
+
+    cycleColorsCheckBox.addActionListener(event -> {
+      if (cycleColorsCheckBox.isSelected()) {
+        colorCycleTimer.start();
+      } else {
+        colorCycleTimer.stop();
+        paletteOffset = 0;
+        mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
+      }
+    });
+
+    tileCostsCheckBox.addActionListener(event -> {
+      updateTileCosts();
+      mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
     });
 
     saveFileButton.addActionListener(event -> {
-      if (renderedImage != null) {
+      Mandlebrot m = mStack.peekLast();
+      if (m != null) {
         JFileChooser chooser = new JFileChooser();
-        chooser.setFileFilter(new FileNameExtensionFilter("Image files", "jpg", "jpeg", "png", "gif"));
+        chooser.setFileFilter(new FileNameExtensionFilter("Image files and tile costs", "jpg", "jpeg", "png", "gif", "csv"));
         int state = chooser.showSaveDialog(frame);
         if (state == JFileChooser.APPROVE_OPTION) {
           File file = chooser.getSelectedFile();
           String name = file.getName();
+          if (name.endsWith(".csv")) {
+            saveTileCosts(m, file);
+            return;
+          }
           String formatName = "JPEG";
           if (name.endsWith(".png")) {
             formatName = "PNG";
           } else if (name.endsWith(".gif")) {
             formatName = "GIF";
           }
+          RenderEvents.EncodeEvent encodeEvent = new RenderEvents.EncodeEvent();
+          encodeEvent.begin();
           try {
-            ImageIO.write(renderedImage, formatName, file);
+            if (formatName.equals("PNG")) {
+              try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                // Without antialiasing, the colors come straight from the values.
+                if (antialiasCheckBox.isSelected()) {
+                  PngEncoder.write(mandlebrotPanel.currentImage(m), tuning.numThreads, out);
+                } else {
+                  PngEncoder.write(m, colorTable, tuning.numThreads, out);
+                }
+              }
+            } else {
+              ImageIO.write(mandlebrotPanel.currentImage(m), formatName, file);
+            }
+            encodeEvent.format = formatName;
+            encodeEvent.fileSize = file.length();
+            encodeEvent.commit();
           } catch (IOException e) {
             e.printStackTrace();
           }
@@ -196,12 +395,109 @@ public class Main {
     });
   }
 
+  private void saveTileCosts(Mandlebrot m, File file) {
+    if (tileCostsMandlebrot != m) {
+      JOptionPane.showMessageDialog(frame, "Select Tile costs and wait for them to be measured first.");
+      return;
+    }
+    try (Writer out = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
+      tileCosts.writeCsv(out);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void updateTileCosts() {
+    Mandlebrot m = mStack.peekLast();
+    if (tileCostsCheckBox.isSelected() && m != null && m != tileCostsMandlebrot
+        && (tileCostsWorker == null || tileCostsWorker.m != m)) {
+      tileCostsWorker = new TileCostsWorker(m);
+      tileCostsWorker.execute();
+    }
+  }
+
   private void zoom(double zoomFactor) {
-    new PanZoomWorker(PAN_CENTER, PAN_CENTER, zoomFactor).execute();
+    panZoom(PAN_CENTER, PAN_CENTER, zoomFactor);
   }
 
   private void pan(int x, int y) {
-    new PanZoomWorker(x, y, 1.0).execute();
+    panZoom(x, y, 1.0);
+  }
+
+  private void panZoom(int x, int y, double zoomFactor) {
+    cancelViewChange();
+    Mandlebrot prefetched = prefetcher.take(mStack.peekLast(), x, y, zoomFactor);
+    if (prefetched != null) {
+      pushMandlebrot(prefetched);
+      onMandlebrotChanged();
+      return;
+    }
+    new PanZoomWorker(x, y, zoomFactor).execute();
+  }
+
+  private void startViewChange() {
+    if (refineJob != null) {
+      refineJob.canceled = true;
+      refineJob = null;
+    }
+    if (!viewChanging) {
+      Mandlebrot m = mStack.peekLast();
+      viewACenter = m.getAMin() + m.getSize() / 2;
+      viewBCenter = m.getBMin() + m.getSize() / 2;
+      viewSize = m.getSize();
+      viewChanging = true;
+      // Speculating about moves from the old view would only slow the previews down.
+      prefetcher.prefetch(m, Collections.emptyList());
+    }
+  }
+
+  private void onViewChanged() {
+    previewScheduler.request(mStack.peekLast().getKernel(), viewACenter, viewBCenter, viewSize);
+    refineTimer.restart();
+  }
+
+  private void onPreview(Mandlebrot m) {
+    // Previews that were on their way when the view change finished are dropped.
+    if (viewChanging) {
+      setPreview(m);
+      mandlebrotLabel.setText(m.toString());
+      mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
+    } else {
+      m.release();
+    }
+  }
+
+  private void setPreview(Mandlebrot m) {
+    if (preview != null) {
+      preview.release();
+    }
+    preview = m;
+  }
+
+  private void refine() {
+    if (viewChanging && dragPoint == null) {
+      refineJob = new RefineJob(mStack.peekLast().getKernel(), viewACenter, viewBCenter, viewSize);
+      if (!refinePipeline.offer(refineJob)) {
+        // The pipeline is still busy with earlier views; try again later.
+        refineJob = null;
+        refineTimer.restart();
+      }
+    }
+  }
+
+  private void cancelViewChange() {
+    refineTimer.stop();
+    if (refineJob != null) {
+      refineJob.canceled = true;
+      refineJob = null;
+    }
+    viewChanging = false;
+    setPreview(null);
+  }
+
+  private void cycleColors() {
+    paletteOffset = (paletteOffset + 1) % colorTable.size();
+    mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
   }
 
   private void colorControlPanelChanged() {
@@ -218,14 +514,16 @@ public class Main {
 
     @Override
     public Mandlebrot doInBackground() {
-      return new Mandlebrot(USE_NATIVE_CODE, NUM_THREADS, SIZE, 0, 0, 4);
+      Kernel kernel = Kernel.parse(System.getProperty("mandlebrot.kernel", "mandlebrot"));
+      return recordRender(() -> gridCache.get(kernel, tuning.useNativeCode, tuning.numThreads, SIZE, 0, 0, 4,
+          () -> new Mandlebrot(kernel, tuning.useNativeCode, tuning.numThreads, SIZE, 0, 0, 4)));
     }
 
     @Override
     protected void done() {
       enableUI(disabledComponents);
       try {
-        mStack.addLast(get());
+        pushMandlebrot(get());
         onMandlebrotChanged();
       } catch (ExecutionException | InterruptedException e) {
         e.printStackTrace();
@@ -233,12 +531,15 @@ public class Main {
     }
   }
 
-  class PanZoomWorker extends SwingWorker<Mandlebrot, Object> {
+  class PanZoomWorker extends SwingWorker<Mandlebrot, Mandlebrot.Tile> {
     private final int x;
     private final int y;
     private final double zoomFactor;
     private final Mandlebrot mBeforeZoom;
     private final List<JComponent> disabledComponents;
+    private final TileCosts costs = new TileCosts(SIZE, tuning.tileSize);
+    // False if the view came from the disk cache, so there are no tiles or costs.
+    private volatile boolean calculated;
 
     PanZoomWorker(int x, int y, double zoomFactor) {
       this.x = x;
@@ -250,14 +551,47 @@ public class Main {
 
     @Override
     public Mandlebrot doInBackground() {
-      return mBeforeZoom.panZoom(x, y, zoomFactor);
+      return recordRender(() -> gridCache.get(mBeforeZoom.getKernel(), mBeforeZoom.usesNativeCode(),
+          mBeforeZoom.getNumThreads(), SIZE, mBeforeZoom.getA(x), mBeforeZoom.getB(y),
+          mBeforeZoom.getSize() * zoomFactor, () -> {
+            calculated = true;
+            return mBeforeZoom.panZoom(x, y, zoomFactor, () -> false,
+                tuning.tileSize, (m, tile, nanos) -> {
+                  costs.tileCompleted(m, tile, nanos);
+                  publish(tile);
+                });
+          }));
+    }
+
+    @Override
+    protected void process(List<Mandlebrot.Tile> tiles) {
+      if (!showPartialImage) {
+        startPartialImage(x, y, zoomFactor);
+      }
+      int[] pixels = ((DataBufferInt) partialImage.getRaster().getDataBuffer()).getData();
+      for (Mandlebrot.Tile tile : tiles) {
+        for (int row = 0; row < tile.height; row++) {
+          IntBuffer values = tile.row(row);
+          int offset = (tile.y + row) * SIZE + tile.x;
+          for (int i = 0; i < tile.width; i++) {
+            pixels[offset + i] = colorTable.valueToColor(values.get(i));
+          }
+        }
+        mandlebrotPanel.repaint(0L, tile.x, tile.y, tile.width, tile.height);
+      }
     }
 
     @Override
     protected void done() {
       enableUI(disabledComponents);
+      showPartialImage = false;
       try {
-        mStack.addLast(get());
+        Mandlebrot m = get();
+        if (calculated) {
+          tileCosts = costs;
+          tileCostsMandlebrot = m;
+        }
+        pushMandlebrot(m);
         onMandlebrotChanged();
       } catch (ExecutionException | InterruptedException e) {
         e.printStackTrace();
@@ -265,6 +599,166 @@ public class Main {
     }
   }
 
+  /**
+   * The view that dragging or zooming with the wheel ended at, to be rendered at full quality.
+   */
+  static final class RefineJob {
+    final Kernel kernel;
+    final double aCenter;
+    final double bCenter;
+    final double size;
+    volatile boolean canceled;
+    // Set by the colorize stage.
+    int colorTableVersion;
+
+    RefineJob(Kernel kernel, double aCenter, double bCenter, double size) {
+      this.kernel = kernel;
+      this.aCenter = aCenter;
+      this.bCenter = bCenter;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The palette for a color table version, for colorizing off the EDT while the color table may
+   * be changing.
+   */
+  static final class ColorSnapshot {
+    final int version;
+    final int[] palette;
+
+    ColorSnapshot(int version, int[] palette) {
+      this.version = version;
+      this.palette = palette;
+    }
+  }
+
+  private Mandlebrot computeRefined(RefineJob job) {
+    if (job.canceled) {
+      throw new CancellationException();
+    }
+    return recordRender(() -> gridCache.get(job.kernel, tuning.useNativeCode, tuning.numThreads, SIZE,
+        job.aCenter, job.bCenter, job.size,
+        () -> new Mandlebrot(job.kernel, tuning.useNativeCode, tuning.numThreads, SIZE,
+            job.aCenter, job.bCenter, job.size, () -> job.canceled)));
+  }
+
+  private void colorizeRefined(RefineJob job, Mandlebrot m, int[] pixels) {
+    if (job.canceled) {
+      return;
+    }
+    RenderEvents.ColorizeEvent event = new RenderEvents.ColorizeEvent();
+    event.begin();
+    ColorSnapshot colors = colorSnapshot;
+    IntBuffer values = m.asIntBuffer();
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = colors.palette[colorTable.paletteIndex(values.get(i))];
+    }
+    job.colorTableVersion = colors.version;
+    event.pixels = pixels.length;
+    event.commit();
+  }
+
+  private void onRefined(RenderPipeline.Frame<RefineJob> frame) {
+    if (frame.job != refineJob) {
+      frame.recycle();
+      frame.m.release();
+      return;
+    }
+    refineJob = null;
+    viewChanging = false;
+    setPreview(null);
+    pushMandlebrot(frame.m);
+    if (frame.job.colorTableVersion == colorTableVersion) {
+      // The colorized image is the palette image, so paint doesn't have to produce it.
+      if (paletteImageFrame != null) {
+        paletteImageFrame.recycle();
+      }
+      paletteImageFrame = frame;
+      paletteImage = frame.image;
+      paletteImageMandlebrot = frame.m;
+      paletteImageColorTableVersion = colorTableVersion;
+      paletteImageOffset = 0;
+    } else {
+      frame.recycle();
+    }
+    onMandlebrotChanged();
+  }
+
+  /**
+   * Ends the view change if its refine job failed, going back to the last view that was rendered
+   * at full quality, rather than leaving the preview up for good.
+   */
+  private void onRefineFailed(RefineJob job) {
+    if (job == refineJob) {
+      cancelViewChange();
+      onMandlebrotChanged();
+    }
+  }
+
+  /**
+   * Calculates the view of m again, a tile at a time, to measure the cost of each tile.
+   */
+  class TileCostsWorker extends SwingWorker<TileCosts, Object> {
+    private final Mandlebrot m;
+
+    TileCostsWorker(Mandlebrot m) {
+      this.m = m;
+    }
+
+    @Override
+    public TileCosts doInBackground() {
+      TileCosts costs = new TileCosts(SIZE, tuning.tileSize);
+      new Mandlebrot(m.getKernel(), tuning.useNativeCode, tuning.numThreads, SIZE,
+          m.getAMin() + m.getSize() / 2, m.getBMin() + m.getSize() / 2, m.getSize(), () -> false,
+          SIZE / 2, SIZE / 2, tuning.tileSize, costs).release();
+      return costs;
+    }
+
+    @Override
+    protected void done() {
+      if (tileCostsWorker == this) {
+        tileCostsWorker = null;
+      }
+      try {
+        tileCosts = get();
+        tileCostsMandlebrot = m;
+        mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
+      } catch (ExecutionException | InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Starts the partial image with the current image, moved and scaled to where it will be once the
+   * point (x, y) is in the center and the view has been zoomed by zoomFactor.
+   */
+  private void startPartialImage(int x, int y, double zoomFactor) {
+    if (partialImage == null) {
+      partialImage = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+    }
+    Graphics2D g = partialImage.createGraphics();
+    g.clearRect(0, 0, SIZE, SIZE);
+    Mandlebrot m = mStack.peekLast();
+    if (m != null) {
+      double scaledSize = SIZE / zoomFactor;
+      g.drawImage(mandlebrotPanel.displayedImage(m),
+          (int) Math.round(SIZE / 2.0 - x / zoomFactor), (int) Math.round(SIZE / 2.0 - y / zoomFactor),
+          (int) Math.round(scaledSize), (int) Math.round(scaledSize), null);
+    }
+    g.dispose();
+    showPartialImage = true;
+  }
+
+  private static Mandlebrot recordRender(Supplier<Mandlebrot> render) {
+    RenderEvents.ComputeEvent event = new RenderEvents.ComputeEvent();
+    event.begin();
+    Mandlebrot m = render.get();
+    RenderMetrics.getInstance().record(m.getRenderStats(), event);
+    return m;
+  }
+
   private List<JComponent> disableUI() {
     frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
     List<JComponent> disabledComponents = new ArrayList<>();
@@ -284,10 +778,22 @@ public class Main {
     frame.setCursor(Cursor.getDefaultCursor());
   }
 
+  /**
+   * Adds m to the history, releasing the oldest view if the history is full.
+   */
+  private void pushMandlebrot(Mandlebrot m) {
+    mStack.addLast(m);
+    if (mStack.size() > MAX_HISTORY) {
+      mStack.removeFirst().release();
+    }
+  }
+
   private void onMandlebrotChanged() {
     backButton.setEnabled(mStack.size() > 1);
     mandlebrotLabel.setText(mStack.peekLast().toString());
     mandlebrotPanel.repaint(0L, 0, 0, SIZE, SIZE);
+    prefetcher.prefetch(mStack.peekLast(), LIKELY_MOVES);
+    updateTileCosts();
   }
 
   private void show() {
@@ -324,8 +830,19 @@ public class Main {
     mandlebrotLabel.setHorizontalAlignment(SwingConstants.CENTER);
     gridbag.setConstraints(mandlebrotLabel, c);
     frame.add(mandlebrotLabel);
-    // Save file button
+    // Antialias check box and label, and cycle colors and tile costs check boxes
     c.fill = GridBagConstraints.NONE;
+    c.gridwidth = 1;
+    gridbag.setConstraints(antialiasCheckBox, c);
+    frame.add(antialiasCheckBox);
+    gridbag.setConstraints(antialiasLabel, c);
+    frame.add(antialiasLabel);
+    gridbag.setConstraints(cycleColorsCheckBox, c);
+    frame.add(cycleColorsCheckBox);
+    gridbag.setConstraints(tileCostsCheckBox, c);
+    frame.add(tileCostsCheckBox);
+    // Save file button
+    c.gridwidth = GridBagConstraints.REMAINDER;
     gridbag.setConstraints(saveFileButton, c);
     frame.add(saveFileButton);
 
@@ -458,10 +975,12 @@ public class Main {
   }
 
   private void fillColorTable() {
+    colorTableVersion++;
     colorTable.fill(
         new ColorTable.Hue(valueOf(hMin), valueOf(hMax), valueOf(hDelta)),
         new ColorTable.Saturation(valueOf(sMin), valueOf(sMax), valueOf(sDelta)),
         new ColorTable.Brightness(valueOf(bMin), valueOf(bMax), valueOf(bDelta)));
+    colorSnapshot = new ColorSnapshot(colorTableVersion, colorTable.palette(0));
   }
 
   private static float valueOf(JSpinner spinner) {
@@ -472,26 +991,134 @@ public class Main {
     @Override
     public void paint(Graphics g) {
       super.paint(g);
-      if (mStack.size() > 0) {
-        Graphics2D g2d = (Graphics2D) g;
-        renderedImage = produceImage(mStack.peekLast());
-        g2d.drawRenderedImage(renderedImage, new AffineTransform());
+      if (preview != null) {
+        g.drawImage(producePreviewImage(preview), 0, 0, SIZE, SIZE, null);
+        return;
+      }
+      if (showPartialImage) {
+        g.drawImage(partialImage, 0, 0, null);
+        return;
+      }
+      Mandlebrot m = mStack.peekLast();
+      if (m != null) {
+        g.drawImage(displayedImage(m), 0, 0, null);
+        if (tileCostsCheckBox.isSelected() && tileCostsMandlebrot == m) {
+          tileCosts.paint((Graphics2D) g);
+        }
       }
     }
 
-    public RenderedImage produceImage(Mandlebrot m) {
-      final BufferedImage bi = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
-      m.accept((x, y, value) -> {
-        bi.setRGB(x, y, colorTable.valueToColor(value));
-      });
+    /**
+     * Returns the image to show for m: the palette image, unless antialiasing is on and colors
+     * aren't being cycled.
+     */
+    BufferedImage displayedImage(Mandlebrot m) {
+      if (antialiasCheckBox.isSelected() && !cycleColorsCheckBox.isSelected()) {
+        return currentImage(m);
+      }
+      return producePaletteImage(m);
+    }
+
+    /**
+     * Returns the RGB image of m with the current colors and antialias setting, producing it only
+     * if it has changed.
+     */
+    BufferedImage currentImage(Mandlebrot m) {
+      boolean antialias = antialiasCheckBox.isSelected();
+      if (m != renderedMandlebrot || colorTableVersion != renderedColorTableVersion
+          || antialias != renderedAntialias) {
+        renderedImage = produceImage(m, antialias);
+        renderedMandlebrot = m;
+        renderedColorTableVersion = colorTableVersion;
+        renderedAntialias = antialias;
+      }
+      return renderedImage;
+    }
+
+    private BufferedImage producePaletteImage(Mandlebrot m) {
+      if (paletteImage == null) {
+        paletteImage = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+      }
+      if (m != paletteImageMandlebrot || colorTableVersion != paletteImageColorTableVersion
+          || paletteOffset != paletteImageOffset) {
+        RenderEvents.ColorizeEvent event = new RenderEvents.ColorizeEvent();
+        event.begin();
+        if (m != indexedMandlebrot) {
+          IntBuffer values = m.asIntBuffer();
+          IntStream.range(0, SIZE).parallel().forEach(y -> {
+            for (int i = y * SIZE; i < (y + 1) * SIZE; i++) {
+              paletteIndices[i] = (short) colorTable.paletteIndex(values.get(i));
+            }
+          });
+          indexedMandlebrot = m;
+        }
+        int[] palette = colorTable.palette(paletteOffset);
+        int[] pixels = ((DataBufferInt) paletteImage.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, SIZE).parallel().forEach(y -> {
+          for (int i = y * SIZE; i < (y + 1) * SIZE; i++) {
+            pixels[i] = palette[paletteIndices[i]];
+          }
+        });
+        paletteImageMandlebrot = m;
+        paletteImageColorTableVersion = colorTableVersion;
+        paletteImageOffset = paletteOffset;
+        event.pixels = pixels.length;
+        event.commit();
+      }
+      return paletteImage;
+    }
+
+    public BufferedImage produceImage(Mandlebrot m, boolean antialias) {
+      // Render into the back buffer so the front buffer (which may still be referenced as
+      // renderedImage) is never modified while it is being shown or saved.
+      BufferedImage bi = imageBuffers[backBufferIndex];
+      if (bi == null) {
+        bi = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        imageBuffers[backBufferIndex] = bi;
+      }
+      backBufferIndex = 1 - backBufferIndex;
+      RenderEvents.ColorizeEvent event = new RenderEvents.ColorizeEvent();
+      event.begin();
+      int[] pixels = ((DataBufferInt) bi.getRaster().getDataBuffer()).getData();
+      colorTable.valuesToColors(m.asIntBuffer(), pixels, 0);
+      if (antialias) {
+        antialiasLabel.setText(antialiaser.antialias(m, colorTable, pixels, 0).toString());
+      } else {
+        antialiasLabel.setText("");
+      }
+      event.pixels = pixels.length;
+      event.commit();
       return bi;
     }
+
+    private BufferedImage producePreviewImage(Mandlebrot m) {
+      BufferedImage previewImage = previewImages.computeIfAbsent(m.getSizeInPixels(),
+          sizeInPixels -> new BufferedImage(sizeInPixels, sizeInPixels, BufferedImage.TYPE_INT_RGB));
+      RenderEvents.ColorizeEvent event = new RenderEvents.ColorizeEvent();
+      event.begin();
+      int[] pixels = ((DataBufferInt) previewImage.getRaster().getDataBuffer()).getData();
+      colorTable.valuesToColors(m.asIntBuffer(), pixels, 0);
+      event.pixels = pixels.length;
+      event.commit();
+      return previewImage;
+    }
   }
 
   public static void main(String[] args) {
+    boolean nativeCodeLoaded = false;
+    try {
+      System.loadLibrary("mandlebrot_jni");
+      nativeCodeLoaded = true;
+    } catch (UnsatisfiedLinkError e) {
+      System.out.println("Native code is not available: " + e.getMessage());
+    }
+    File tuningFile = new File(System.getProperty("mandlebrot.tuningFile",
+        new File(new File(System.getProperty("user.home"), ".mandlebrot"), "tuning.properties").getPath()));
+    Tuning tuning = Tuning.load(tuningFile, nativeCodeLoaded);
+    System.out.println("Tuning: " + tuning);
     SwingUtilities.invokeLater(new Runnable() {
       public void run() {
-        new Main();
+        new Main(tuning);
       }
     });
   }
@@ -16,10 +16,64 @@
 
 package org.lizlooney.mandlebrot;
 
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Mandlebrot {
   public static final int MAX_VALUE = 1000;
+  // The native code iterates with floats only where the spacing between pixels is at least this
+  // many times the rounding error of a float.
+  private static final double FLOAT_PRECISION_MARGIN = 2048;
+  // Before floats are used, they are checked against doubles at every VALIDATION_STRIDE-th pixel
+  // of every VALIDATION_STRIDE-th row. If more than MAX_FLOAT_MISMATCH_FRACTION of them differ,
+  // the values are calculated with doubles instead.
+  private static final int VALIDATION_STRIDE = 16;
+  private static final double MAX_FLOAT_MISMATCH_FRACTION = 0.01;
+  // withMaxValue hands out the pixels that didn't escape to its threads this many at a time.
+  private static final int RESUME_CHUNK = 1024;
+  // Runs the threads of every calculation, so that a render reuses idle threads instead of starting
+  // new ones. It isn't bounded, so renders running at the same time never wait for each other. A
+  // thread takes on the priority of the render's caller only while it works for that render.
+  private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "Mandlebrot");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.NORM_PRIORITY);
+    return thread;
+  });
+
+  /**
+   * Receives the tiles of a Mandlebrot, as soon as each one has been calculated, on the thread
+   * that calculated it, with the time it took to calculate.
+   */
+  interface TileListener {
+    void tileCompleted(Mandlebrot m, Tile tile, long nanos);
+  }
+
+  /**
+   * Tells a calculation, between rows or tiles, whether it should stop.
+   */
+  interface Canceled {
+    boolean isCanceled();
+  }
+
+  /**
+   * The work of one of the threads of a calculation.
+   */
+  interface ThreadBody {
+    void run(int threadNumber);
+  }
 
   private final String s;
+  private final Kernel kernel;
   private final boolean useNativeCode;
   private final int numThreads;
   private final int sizeInPixels;
@@ -27,13 +81,90 @@ public class Mandlebrot {
   private final double pixelsPerUnit;
   private final double aMin;
   private final double bMin;
-  private final Object valuesLock = new Object();
-  private final int[] values;
+  // The pixel coordinates of this Mandlebrot's top-left pixel, within a larger image that it is a
+  // tile of. Both are 0 unless this Mandlebrot was created by forTile.
+  private final int xOffset;
+  private final int yOffset;
+  private final int maxValue;
+  // Written only while the constructor runs; the joins in calculatePixelValues publish the
+  // values to every thread that can see this object, so reads need no locking. When the native
+  // code calculates the values, this is a direct buffer that it writes into in place; otherwise it
+  // wraps an array that the java kernels write into. Only absolute gets and puts, or those on
+  // duplicates, are used, so its position is always 0.
+  private final IntBuffer values;
+  private RenderStats renderStats;
+  // Guarded by this.
+  private boolean released;
+  // Only kept by Mandlebrots created by resumable or withMaxValue: the index of each pixel that
+  // didn't escape, in increasing order, and two doubles per pixel for where z stopped.
+  private int[] unescapedPixels;
+  private double[] unescapedZ;
+  // Only set while a Mandlebrot created with a TileListener is being calculated.
+  private TileListener tileListener;
+  private int priorityX;
+  private int priorityY;
+  private int priorityTileSize;
+  // Whether any tile has been passed to tileListener. Written by the calculation's threads, and
+  // read once they have been joined.
+  private boolean tilePublished;
 
   public Mandlebrot(boolean useNativeCode, int numThreads,
       int sizeInPixels, double aCenter, double bCenter, double size) {
+    this(Kernel.MANDLEBROT, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size);
+  }
+
+  public Mandlebrot(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size) {
+    this(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size, () -> false);
+  }
+
+  /**
+   * Creates a Mandlebrot whose calculation stops early, throwing CancellationException, once
+   * canceled returns true. The native code can't be canceled; it always runs to completion.
+   */
+  Mandlebrot(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, Canceled canceled) {
+    this(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size,
+        allocateValues(useNativeCode, sizeInPixels * sizeInPixels), MAX_VALUE);
+    calculatePixelValues(canceled);
+    if (canceled.isCanceled()) {
+      release();
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Creates a Mandlebrot that is calculated a tileSize x tileSize tile at a time, nearest to pixel
+   * (priorityX, priorityY) first, passing each tile to listener as soon as it is done. Because the tiles are
+   * separate calls to the native code, the native code can be canceled too, between tiles.
+   * If canceled after the listener has been given a tile, the values aren't released, since the
+   * listener may still be using its tiles; the listener gets this Mandlebrot with each tile, and
+   * releasing it is up to the listener. If canceled before any tile, the values are released.
+   */
+  Mandlebrot(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, Canceled canceled,
+      int priorityX, int priorityY, int tileSize, TileListener listener) {
+    this(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size,
+        allocateValues(useNativeCode, sizeInPixels * sizeInPixels), MAX_VALUE);
+    this.priorityX = priorityX;
+    this.priorityY = priorityY;
+    priorityTileSize = tileSize;
+    tileListener = listener;
+    calculatePixelValues(canceled);
+    tileListener = null;
+    if (canceled.isCanceled()) {
+      if (!tilePublished) {
+        release();
+      }
+      throw new CancellationException();
+    }
+  }
+
+  private Mandlebrot(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, IntBuffer values, int maxValue) {
     this.s = "Center: (" + formatDouble(aCenter) + ", " + formatDouble(bCenter) + ") width/height: " + formatDouble(size);
 
+    this.kernel = kernel;
     this.useNativeCode = useNativeCode;
     this.numThreads = numThreads;
     this.sizeInPixels = sizeInPixels;
@@ -41,9 +172,264 @@ public class Mandlebrot {
     pixelsPerUnit = sizeInPixels / size;
     aMin = aCenter - size / 2;
     bMin = bCenter - size / 2;
-    values = new int[sizeInPixels * sizeInPixels];
+    xOffset = 0;
+    yOffset = 0;
+    this.maxValue = maxValue;
+    this.values = values;
+  }
+
+  private Mandlebrot(Kernel kernel, boolean useNativeCode, int numThreads, int sizeInPixels,
+      double aMin, double bMin, double pixelsPerUnit, int xOffset, int yOffset) {
+    this.size = sizeInPixels / pixelsPerUnit;
+    double aCenter = aMin + (xOffset + sizeInPixels / 2.0) / pixelsPerUnit;
+    double bCenter = bMin + (yOffset + sizeInPixels / 2.0) / pixelsPerUnit;
+    this.s = "Center: (" + formatDouble(aCenter) + ", " + formatDouble(bCenter) + ") width/height: " + formatDouble(size);
+
+    this.kernel = kernel;
+    this.useNativeCode = useNativeCode;
+    this.numThreads = numThreads;
+    this.sizeInPixels = sizeInPixels;
+    this.pixelsPerUnit = pixelsPerUnit;
+    this.aMin = aMin;
+    this.bMin = bMin;
+    this.xOffset = xOffset;
+    this.yOffset = yOffset;
+    maxValue = MAX_VALUE;
+    values = allocateValues(useNativeCode, sizeInPixels * sizeInPixels);
+  }
+
+  /**
+   * Creates a Mandlebrot of exactly the same pixels as like, with the given values and iteration
+   * limit, calculated by the java kernels.
+   */
+  private Mandlebrot(Mandlebrot like, IntBuffer values, int maxValue) {
+    s = like.s;
+    kernel = like.kernel;
+    useNativeCode = false;
+    numThreads = like.numThreads;
+    sizeInPixels = like.sizeInPixels;
+    size = like.size;
+    pixelsPerUnit = like.pixelsPerUnit;
+    aMin = like.aMin;
+    bMin = like.bMin;
+    xOffset = like.xOffset;
+    yOffset = like.yOffset;
+    this.maxValue = maxValue;
+    this.values = values;
+  }
+
+  /**
+   * Returns a buffer for count values, from the GridPool. Its contents are left over from its
+   * previous use, so every value must be calculated.
+   */
+  private static IntBuffer allocateValues(boolean useNativeCode, int count) {
+    return GridPool.acquire(useNativeCode, count);
+  }
+
+  /**
+   * Gives this Mandlebrot's values back to the GridPool, to be reused by a later Mandlebrot. Only
+   * the owner of this Mandlebrot may call this, once nothing will read its values again.
+   */
+  public void release() {
+    synchronized (this) {
+      if (released) {
+        return;
+      }
+      released = true;
+    }
+    if (renderStats != null) {
+      renderStats.valuesReleased();
+    }
+    GridPool.release(values);
+  }
+
+  /**
+   * Creates a Mandlebrot for the tileSize x tileSize square of pixels, with top-left pixel
+   * (xOffset, yOffset), of the image whose top-left pixel is at (aMin, bMin). useFloat must be the
+   * same for every tile of the image, the result of shouldUseFloat for the whole image; then the
+   * values are identical to the corresponding values of a Mandlebrot for the whole image.
+   */
+  public static Mandlebrot forTile(Kernel kernel, boolean useNativeCode, int numThreads, int tileSize,
+      double aMin, double bMin, double pixelsPerUnit, int xOffset, int yOffset, boolean useFloat) {
+    Mandlebrot m = new Mandlebrot(kernel, useNativeCode, numThreads, tileSize,
+        aMin, bMin, pixelsPerUnit, xOffset, yOffset);
+    m.calculatePixelValues(useFloat && useNativeCode && kernel.id == Kernel.MANDLEBROT_ID, () -> false);
+    return m;
+  }
+
+  /**
+   * Creates a Mandlebrot from values that have already been calculated elsewhere.
+   */
+  static Mandlebrot fromValues(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, int[] values,
+      RenderStats renderStats) {
+    Mandlebrot m = new Mandlebrot(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size,
+        IntBuffer.wrap(values), MAX_VALUE);
+    m.renderStats = renderStats;
+    return m;
+  }
+
+  /**
+   * Creates a quick, rough Mandlebrot to show while the view is changing. No pixel is iterated
+   * more than maxValue times, so points that escape slowly appear to be inside the set.
+   */
+  static Mandlebrot preview(Kernel kernel, boolean useNativeCode, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, int maxValue) {
+    Mandlebrot m = new Mandlebrot(kernel, useNativeCode, numThreads, sizeInPixels, aCenter, bCenter, size,
+        allocateValues(useNativeCode, sizeInPixels * sizeInPixels), Math.min(maxValue, MAX_VALUE));
+    m.calculatePixelValues(() -> false);
+    return m;
+  }
 
-    calculatePixelValues();
+  /**
+   * Creates a Mandlebrot, calculated by the java kernels with the given iteration limit, that
+   * remembers where z stopped for each pixel that didn't escape, so that withMaxValue can continue
+   * from there instead of starting again.
+   */
+  public static Mandlebrot resumable(Kernel kernel, int numThreads,
+      int sizeInPixels, double aCenter, double bCenter, double size, int maxValue) {
+    Mandlebrot m = new Mandlebrot(kernel, false, numThreads, sizeInPixels, aCenter, bCenter, size,
+        allocateValues(false, sizeInPixels * sizeInPixels), maxValue);
+    m.calculateResumable();
+    return m;
+  }
+
+  /**
+   * Calculates the values with the java kernels, remembering where z stopped for each pixel that
+   * didn't escape.
+   */
+  private void calculateResumable() {
+    long start = System.nanoTime();
+    int[] values = this.values.array();
+    int[][] rowPixels = new int[sizeInPixels][];
+    double[][] rowZ = new double[sizeInPixels][];
+    AtomicInteger nextRow = new AtomicInteger();
+    long[] threadBusyNanos = runThreads(numThreads, threadNumber -> {
+      int[] pixels = new int[sizeInPixels];
+      double[] z = new double[2 * sizeInPixels];
+      for (int y = nextRow.getAndIncrement(); y < sizeInPixels; y = nextRow.getAndIncrement()) {
+        double pB = bMin + (yOffset + y) / pixelsPerUnit;
+        int count = 0;
+        for (int x = 0; x < sizeInPixels; x++) {
+          double pA = aMin + (xOffset + x) / pixelsPerUnit;
+          z[2 * count] = pA;
+          z[2 * count + 1] = pB;
+          int value = kernel.iterate(pA, pB, z, 2 * count, 0, maxValue);
+          values[y * sizeInPixels + x] = value;
+          if (value == Integer.MAX_VALUE) {
+            pixels[count++] = y * sizeInPixels + x;
+          }
+        }
+        rowPixels[y] = Arrays.copyOf(pixels, count);
+        rowZ[y] = Arrays.copyOf(z, 2 * count);
+      }
+    });
+    int count = 0;
+    for (int[] pixels : rowPixels) {
+      count += pixels.length;
+    }
+    unescapedPixels = new int[count];
+    unescapedZ = new double[2 * count];
+    int i = 0;
+    for (int y = 0; y < sizeInPixels; y++) {
+      System.arraycopy(rowPixels[y], 0, unescapedPixels, i, rowPixels[y].length);
+      System.arraycopy(rowZ[y], 0, unescapedZ, 2 * i, rowZ[y].length);
+      i += rowPixels[y].length;
+    }
+    renderStats = new RenderStats("java resumable", kernel, asIntBuffer(), maxValue,
+        System.nanoTime() - start, threadBusyNanos);
+  }
+
+  /**
+   * Returns this Mandlebrot with a higher iteration limit. If this Mandlebrot remembers where z
+   * stopped, only the pixels that didn't escape are iterated, and only from where they stopped;
+   * otherwise it is calculated from the start. Either way it has exactly the same pixels as this
+   * Mandlebrot, even if this is a tile, so the values are exactly those of a Mandlebrot calculated
+   * with newMaxValue in the first place.
+   */
+  public Mandlebrot withMaxValue(int newMaxValue) {
+    if (newMaxValue < maxValue) {
+      throw new IllegalArgumentException("newMaxValue must be at least " + maxValue);
+    }
+    if (unescapedPixels == null) {
+      Mandlebrot m = new Mandlebrot(this, allocateValues(false, sizeInPixels * sizeInPixels),
+          newMaxValue);
+      m.calculateResumable();
+      return m;
+    }
+    long start = System.nanoTime();
+    IntBuffer newBuffer = allocateValues(false, sizeInPixels * sizeInPixels);
+    int[] newValues = newBuffer.array();
+    asIntBuffer().get(newValues);
+    Mandlebrot m = new Mandlebrot(this, newBuffer, newMaxValue);
+    double[] z = unescapedZ.clone();
+    int from = maxValue + 1;
+    AtomicInteger nextChunk = new AtomicInteger();
+    long[] threadBusyNanos = runThreads(numThreads, threadNumber -> {
+      for (int chunk = nextChunk.getAndIncrement(); chunk * RESUME_CHUNK < unescapedPixels.length;
+          chunk = nextChunk.getAndIncrement()) {
+        int end = Math.min((chunk + 1) * RESUME_CHUNK, unescapedPixels.length);
+        for (int i = chunk * RESUME_CHUNK; i < end; i++) {
+          int pixel = unescapedPixels[i];
+          // The same pixel, exactly as it was when z started.
+          double pA = aMin + (xOffset + pixel % sizeInPixels) / pixelsPerUnit;
+          double pB = bMin + (yOffset + pixel / sizeInPixels) / pixelsPerUnit;
+          newValues[pixel] = kernel.iterate(pA, pB, z, 2 * i, from, newMaxValue);
+        }
+      }
+    });
+    int count = 0;
+    for (int pixel : unescapedPixels) {
+      if (newValues[pixel] == Integer.MAX_VALUE) {
+        count++;
+      }
+    }
+    m.unescapedPixels = new int[count];
+    m.unescapedZ = new double[2 * count];
+    int j = 0;
+    for (int i = 0; i < unescapedPixels.length; i++) {
+      if (newValues[unescapedPixels[i]] == Integer.MAX_VALUE) {
+        m.unescapedPixels[j] = unescapedPixels[i];
+        m.unescapedZ[2 * j] = z[2 * i];
+        m.unescapedZ[2 * j + 1] = z[2 * i + 1];
+        j++;
+      }
+    }
+    m.renderStats = new RenderStats("java resumed", kernel, m.asIntBuffer(), newMaxValue,
+        System.nanoTime() - start, threadBusyNanos);
+    return m;
+  }
+
+  /**
+   * Runs body on numThreads threads of WORKERS at once, at the calling thread's priority, passing
+   * each its thread number, and returns how long each was busy.
+   */
+  static long[] runThreads(int numThreads, ThreadBody body) {
+    long[] threadBusyNanos = new long[numThreads];
+    Future<?>[] threads = new Future<?>[numThreads];
+    int priority = Thread.currentThread().getPriority();
+    for (int i = 0; i < numThreads; i++) {
+      final int threadNumber = i;
+      threads[i] = WORKERS.submit(() -> {
+        Thread worker = Thread.currentThread();
+        worker.setPriority(priority);
+        try {
+          long threadStart = System.nanoTime();
+          body.run(threadNumber);
+          threadBusyNanos[threadNumber] = System.nanoTime() - threadStart;
+        } finally {
+          worker.setPriority(Thread.NORM_PRIORITY);
+        }
+      });
+    }
+    for (int i = 0; i < numThreads; i++) {
+      try {
+        threads[i].get();
+      } catch (ExecutionException | InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+    return threadBusyNanos;
   }
 
   private static String formatDouble(double d) {
@@ -60,77 +446,376 @@ public class Mandlebrot {
   }
 
   public Mandlebrot panZoom(int x, int y, double zoomFactor) {
-    double cA = aMin + x / pixelsPerUnit;
-    double cB = bMin + y / pixelsPerUnit;
-    return new Mandlebrot(useNativeCode, numThreads, sizeInPixels, cA, cB, size * zoomFactor);
+    return panZoom(x, y, zoomFactor, () -> false);
+  }
+
+  Mandlebrot panZoom(int x, int y, double zoomFactor, Canceled canceled) {
+    double cA = getA(x);
+    double cB = getB(y);
+    return new Mandlebrot(kernel, useNativeCode, numThreads, sizeInPixels, cA, cB, size * zoomFactor, canceled);
+  }
+
+  /**
+   * Like panZoom, but calculates the new Mandlebrot from its center outwards, passing each tile to
+   * listener as soon as it is done. The center is where the point (x, y) of this Mandlebrot ends
+   * up, so that is what the user sees first.
+   */
+  Mandlebrot panZoom(int x, int y, double zoomFactor, Canceled canceled,
+      int tileSize, TileListener listener) {
+    double cA = getA(x);
+    double cB = getB(y);
+    return new Mandlebrot(kernel, useNativeCode, numThreads, sizeInPixels, cA, cB, size * zoomFactor, canceled,
+        sizeInPixels / 2, sizeInPixels / 2, tileSize, listener);
   }
 
   public String toString() {
     return s;
   }
 
-  private static native void calculatePixelValuesNative(int[] values, int numThreads, double aMin, double bMin, double pixelsPerUnit, int sizeInPixels, int maxValue);
+  public Kernel getKernel() {
+    return kernel;
+  }
 
-  private void calculatePixelValues() {
-    if (useNativeCode) {
-      calculatePixelValuesNative(values, numThreads, aMin, bMin, pixelsPerUnit, sizeInPixels, MAX_VALUE);
-      return;
-    }
+  public boolean usesNativeCode() {
+    return useNativeCode;
+  }
 
-    Thread[] threads = new Thread[numThreads];
-    for (int i = 0; i < numThreads; i++) {
-      final int threadNumber = i;
-      threads[i] = new Thread(() -> calculateValuesForThread(threadNumber));
-      threads[i].start();
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public int getSizeInPixels() {
+    return sizeInPixels;
+  }
+
+  public double getAMin() {
+    return aMin;
+  }
+
+  public double getBMin() {
+    return bMin;
+  }
+
+  public double getPixelsPerUnit() {
+    return pixelsPerUnit;
+  }
+
+  /**
+   * Returns the real part of the points in column x. It is the center of panZoom(x, y, ...).
+   */
+  public double getA(int x) {
+    return aMin + (xOffset + x) / pixelsPerUnit;
+  }
+
+  /**
+   * Returns the imaginary part of the points in row y. It is the center of panZoom(x, y, ...).
+   */
+  public double getB(int y) {
+    return bMin + (yOffset + y) / pixelsPerUnit;
+  }
+
+  public double getSize() {
+    return size;
+  }
+
+  public int getMaxValue() {
+    return maxValue;
+  }
+
+  public RenderStats getRenderStats() {
+    return renderStats;
+  }
+
+
+  /**
+   * Calculates the values of a whole image, which is not a tile of a larger one.
+   */
+  private void calculatePixelValues(Canceled canceled) {
+    // The choice is made before any value is calculated, so that each tile is only calculated,
+    // and passed to tileListener, once.
+    calculatePixelValues(shouldUseFloat(kernel, useNativeCode, sizeInPixels, aMin, bMin,
+        pixelsPerUnit, maxValue), canceled);
+  }
+
+  private void calculatePixelValues(boolean useFloat, Canceled canceled) {
+    long start = System.nanoTime();
+    long[] threadBusyNanos = calculateValues(useFloat, canceled);
+    String engine = (useNativeCode ? "native" : "java") + (useFloat ? " float" : "");
+    renderStats = new RenderStats(engine, kernel, asIntBuffer(), maxValue, System.nanoTime() - start, threadBusyNanos);
+  }
+
+  /**
+   * Returns whether the image of sizeInPixels x sizeInPixels pixels whose top-left pixel is at
+   * (aMin, bMin) should be calculated with floats. The choice is made once for a whole image, so
+   * that all of its tiles are calculated the same way.
+   *
+   * <p>Only the native code has a float path, written so that the compiler can vectorize it, with
+   * twice as many pixels per SIMD register as doubles would fit. A scalar float loop in java is
+   * no faster than the double one.
+   */
+  static boolean shouldUseFloat(Kernel kernel, boolean useNativeCode, int sizeInPixels,
+      double aMin, double bMin, double pixelsPerUnit, int maxValue) {
+    return useNativeCode && kernel.id == Kernel.MANDLEBROT_ID
+        && isFloatPreciseEnough(sizeInPixels, aMin, bMin, pixelsPerUnit)
+        && floatAgreesWithDouble(kernel, sizeInPixels, aMin, bMin, pixelsPerUnit, maxValue);
+  }
+
+  /**
+   * Returns true if the spacing between pixels is far larger than the rounding error of a float
+   * anywhere in the image (or anywhere z goes before it escapes).
+   */
+  private static boolean isFloatPreciseEnough(int sizeInPixels, double aMin, double bMin,
+      double pixelsPerUnit) {
+    double aMax = aMin + sizeInPixels / pixelsPerUnit;
+    double bMax = bMin + sizeInPixels / pixelsPerUnit;
+    double maxMagnitude = Math.max(
+        Math.max(Math.abs(aMin), Math.abs(aMax)), Math.max(Math.abs(bMin), Math.abs(bMax)));
+    maxMagnitude = Math.max(maxMagnitude, 2);
+    return 1 / pixelsPerUnit > FLOAT_PRECISION_MARGIN * Math.ulp((float) maxMagnitude);
+  }
+
+  /**
+   * Checks a sample of values calculated with floats against values calculated with doubles.
+   */
+  private static boolean floatAgreesWithDouble(Kernel kernel, int sizeInPixels,
+      double aMin, double bMin, double pixelsPerUnit, int maxValue) {
+    int samples = 0;
+    int mismatches = 0;
+    for (int y = VALIDATION_STRIDE / 2; y < sizeInPixels; y += VALIDATION_STRIDE) {
+      double cB = bMin + y / pixelsPerUnit;
+      for (int x = VALIDATION_STRIDE / 2; x < sizeInPixels; x += VALIDATION_STRIDE) {
+        double cA = aMin + x / pixelsPerUnit;
+        if (kernel.calculateValue(cA, cB, maxValue) != calculateValueFloatNative(cA, cB, maxValue)) {
+          mismatches++;
+        }
+        samples++;
+      }
     }
+    return mismatches <= samples * MAX_FLOAT_MISMATCH_FRACTION;
+  }
 
-    for (int i = 0; i < numThreads; i++) {
-      try {
-        threads[i].join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+  private static native void calculatePixelValuesNative(IntBuffer values, int numThreads, boolean useFloat, int kernelId, double kernelParamA, double kernelParamB, double aMin, double bMin, double pixelsPerUnit, int xOffset, int yOffset, int sizeInPixels, int maxValue, int[] mirrorOf);
+
+  /**
+   * Returns, for each row, the row whose values it shares because the two are exact mirror images
+   * across the real axis, or -1 if the row has to be calculated. A row is only shared if its
+   * imaginary part is exactly the negative of the other's, so the copied values are identical to
+   * calculated ones.
+   */
+  private int[] findMirroredRows() {
+    int[] mirrorOf = new int[sizeInPixels];
+    Arrays.fill(mirrorOf, -1);
+    if (!kernel.isConjugateSymmetric()) {
+      return mirrorOf;
+    }
+    // cB increases with y, so walk inwards from both ends.
+    int top = 0;
+    int bottom = sizeInPixels - 1;
+    while (top < bottom) {
+      double cBTop = bMin + (yOffset + top) / pixelsPerUnit;
+      double cBBottom = bMin + (yOffset + bottom) / pixelsPerUnit;
+      if (cBTop == -cBBottom) {
+        mirrorOf[bottom--] = top++;
+      } else if (-cBTop > cBBottom) {
+        top++;
+      } else {
+        bottom--;
       }
     }
+    return mirrorOf;
   }
 
-  private void calculateValuesForThread(int threadNumber) {
-    int i = 0;
+  /**
+   * Calculates all the values and returns how long each thread was busy, or an empty array if
+   * the threads weren't timed individually.
+   */
+  private long[] calculateValues(boolean useFloat, Canceled canceled) {
+    if (tileListener != null) {
+      return calculateTilesByPriority(useFloat, canceled);
+    }
+    int[] mirrorOf = findMirroredRows();
+    long[] threadBusyNanos;
+    if (useNativeCode) {
+      calculatePixelValuesNative(values, numThreads, useFloat, kernel.id, kernel.paramA, kernel.paramB, aMin, bMin, pixelsPerUnit, xOffset, yOffset, sizeInPixels, maxValue, mirrorOf);
+      threadBusyNanos = new long[0];
+    } else {
+      threadBusyNanos = calculatePixelValuesJava(mirrorOf, canceled);
+    }
     for (int y = 0; y < sizeInPixels; y++) {
-      for (int x = 0; x < sizeInPixels; x++) {
-        if (numThreads == 1 || i % numThreads == threadNumber) {
-          double cA = aMin + x / pixelsPerUnit;
-          double cB = bMin + y / pixelsPerUnit;
-          int value = calculateValue(cA, cB);
+      if (mirrorOf[y] >= 0) {
+        copyValues(values, mirrorOf[y] * sizeInPixels, y * sizeInPixels, sizeInPixels);
+      }
+    }
+    return threadBusyNanos;
+  }
 
-          synchronized (valuesLock) {
-            values[i] = value;
+  private long[] calculatePixelValuesJava(int[] mirrorOf, Canceled canceled) {
+    return runThreads(numThreads,
+        threadNumber -> calculateValuesForThread(threadNumber, mirrorOf, canceled));
+  }
+
+  /**
+   * Calculates the values a tile at a time, in order of distance from (priorityX, priorityY), and
+   * passes each tile to tileListener as soon as it is done. Rows aren't mirrored.
+   */
+  private long[] calculateTilesByPriority(boolean useFloat, Canceled canceled) {
+    List<Tile> tiles = tiles(priorityTileSize);
+    Collections.sort(tiles, (tile1, tile2) ->
+        Long.compare(distanceSquaredToPriority(tile1), distanceSquaredToPriority(tile2)));
+    AtomicInteger nextTile = new AtomicInteger();
+    return runThreads(numThreads, threadNumber -> {
+      IntBuffer scratch = useNativeCode ? allocateValues(true, priorityTileSize * priorityTileSize) : null;
+      int[] noMirrors = useNativeCode ? new int[priorityTileSize] : null;
+      if (noMirrors != null) {
+        Arrays.fill(noMirrors, -1);
+      }
+      for (int t = nextTile.getAndIncrement(); t < tiles.size() && !canceled.isCanceled();
+          t = nextTile.getAndIncrement()) {
+        Tile tile = tiles.get(t);
+        long tileStart = System.nanoTime();
+        if (useNativeCode) {
+          calculateTileNative(tile, useFloat, scratch, noMirrors);
+        } else {
+          for (int y = tile.y; y < tile.y + tile.height; y++) {
+            double cB = bMin + (yOffset + y) / pixelsPerUnit;
+            kernel.calculateRow(values.array(), y * sizeInPixels + tile.x, tile.width, aMin, xOffset + tile.x, pixelsPerUnit, cB, maxValue);
           }
         }
-        i++;
+        tilePublished = true;
+        tileListener.tileCompleted(this, tile, System.nanoTime() - tileStart);
+      }
+      if (scratch != null) {
+        GridPool.release(scratch);
       }
+    });
+  }
+
+  private long distanceSquaredToPriority(Tile tile) {
+    long dx = 2 * tile.x + tile.width - 2 * priorityX;
+    long dy = 2 * tile.y + tile.height - 2 * priorityY;
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Calculates a tile with a single native thread. The native code only does squares, so tiles
+   * along the edges are calculated into scratch and copied.
+   */
+  private void calculateTileNative(Tile tile, boolean useFloat, IntBuffer scratch, int[] noMirrors) {
+    int side = Math.max(tile.width, tile.height);
+    calculatePixelValuesNative(scratch, 1, useFloat, kernel.id, kernel.paramA, kernel.paramB, aMin, bMin, pixelsPerUnit, xOffset + tile.x, yOffset + tile.y, side, maxValue, noMirrors);
+    for (int y = 0; y < tile.height; y++) {
+      copyValues(scratch, y * side, (tile.y + y) * sizeInPixels + tile.x, tile.width);
+    }
+  }
+
+  /**
+   * Copies length values from source, starting at sourceIndex, into values, starting at index.
+   */
+  private void copyValues(IntBuffer source, int sourceIndex, int index, int length) {
+    IntBuffer from = source.duplicate();
+    from.position(sourceIndex);
+    from.limit(sourceIndex + length);
+    IntBuffer to = values.duplicate();
+    to.position(index);
+    to.put(from);
+  }
+
+  private void calculateValuesForThread(int threadNumber, int[] mirrorOf, Canceled canceled) {
+    int[] values = this.values.array();
+    // Rows are interleaved between the threads so that expensive areas are shared out evenly.
+    for (int y = threadNumber; y < sizeInPixels; y += numThreads) {
+      if (canceled.isCanceled()) {
+        return;
+      }
+      if (mirrorOf[y] >= 0) {
+        continue;
+      }
+      double cB = bMin + (yOffset + y) / pixelsPerUnit;
+      kernel.calculateRow(values, y * sizeInPixels, sizeInPixels, aMin, xOffset, pixelsPerUnit, cB, maxValue);
     }
   }
 
-  private static native int calculateValueNative(double cA, double cB, int maxValue);
+  private static native int calculateValueNative(int kernelId, double kernelParamA, double kernelParamB, double cA, double cB, int maxValue);
 
-  private int calculateValue(double cA, double cB) {
+  /**
+   * Returns the value that the native float path calculates for a pixel at (cA, cB).
+   */
+  private static native int calculateValueFloatNative(double cA, double cB, int maxValue);
+
+  int calculateValue(double cA, double cB) {
     if (useNativeCode) {
-      return calculateValueNative(cA, cB, MAX_VALUE);
+      return calculateValueNative(kernel.id, kernel.paramA, kernel.paramB, cA, cB, maxValue);
     }
+    return kernel.calculateValue(cA, cB, maxValue);
+  }
 
-    double zA = cA;
-    double zB = cB;
-    for (int i = 0; i <= MAX_VALUE; i++) {
-      double zAzA = zA * zA;
-      double zBzB = zB * zB;
-      if (zAzA + zBzB >= 4) {
-        return i;
+  /**
+   * Calculates the value at a point within pixel (x, y), where dx and dy are fractions of a pixel
+   * in the range [-0.5, 0.5). The value stored for the pixel is the one at dx = dy = 0.
+   */
+  int calculateSubpixelValue(int x, int y, double dx, double dy) {
+    double cA = aMin + (xOffset + x + dx) / pixelsPerUnit;
+    double cB = bMin + (yOffset + y + dy) / pixelsPerUnit;
+    return calculateValue(cA, cB);
+  }
+
+  /**
+   * Returns a read-only view of all values, in row-major order.
+   */
+  public IntBuffer asIntBuffer() {
+    return values.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns a read-only view of the values in row y.
+   */
+  public IntBuffer row(int y) {
+    return slice(y * sizeInPixels, sizeInPixels);
+  }
+
+  private IntBuffer slice(int index, int length) {
+    IntBuffer buffer = values.asReadOnlyBuffer();
+    buffer.position(index);
+    buffer.limit(index + length);
+    return buffer.slice();
+  }
+
+  /**
+   * Returns the tiles that cover this Mandlebrot, in rows. Tiles along the right and bottom edges
+   * are smaller if sizeInPixels is not a multiple of tileSize. The returned list is the caller's.
+   */
+  public List<Tile> tiles(int tileSize) {
+    int tilesPerRow = (sizeInPixels + tileSize - 1) / tileSize;
+    List<Tile> tiles = new ArrayList<>(tilesPerRow * tilesPerRow);
+    for (int y = 0; y < sizeInPixels; y += tileSize) {
+      for (int x = 0; x < sizeInPixels; x += tileSize) {
+        tiles.add(new Tile(x, y,
+            Math.min(tileSize, sizeInPixels - x), Math.min(tileSize, sizeInPixels - y)));
       }
-      double nextA = zAzA - zBzB + cA;
-      zB = 2 * zA * zB + cB;
-      zA = nextA;
     }
-    return Integer.MAX_VALUE;
+    return tiles;
+  }
+
+  public final class Tile {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+
+    private Tile(int x, int y, int width, int height) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * Returns a read-only view of the values in row y of this tile, where y is relative to the
+     * top of the tile.
+     */
+    public IntBuffer row(int y) {
+      return slice((this.y + y) * sizeInPixels + x, width);
+    }
   }
 
   public interface Visitor {
@@ -138,13 +823,11 @@ public class Mandlebrot {
   }
 
   public void accept(Visitor visitor) {
-    synchronized (valuesLock) {
-      int i = 0;
-      for (int y = 0; y < sizeInPixels; y++) {
-        for (int x = 0; x < sizeInPixels; x++) {
-          visitor.visit(x, y, values[i]);
-          i++;
-        }
+    int i = 0;
+    for (int y = 0; y < sizeInPixels; y++) {
+      for (int x = 0; x < sizeInPixels; x++) {
+        visitor.visit(x, y, values.get(i));
+        i++;
       }
     }
   }
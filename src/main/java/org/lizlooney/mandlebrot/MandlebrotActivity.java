@@ -40,22 +40,27 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.core.view.GestureDetectorCompat;
+import java.io.File;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
 
 public final class MandlebrotActivity extends Activity {
-  private static final boolean USE_NATIVE_CODE = true;
-  private static final int NUM_THREADS = 16;
   private static final double ZOOM_OUT = 4;
   private static final double ZOOM_IN = 1 / ZOOM_OUT;
 
   private static final int SPINNER_POS_BACK_ZOOM_PAN = 0;
   private static final int SPINNER_POS_COLOR = 1;
+  // The back button goes back through at most this many views. Older views are released, so their
+  // grids can be reused.
+  private static final int MAX_HISTORY = 16;
 
   private final Deque<Mandlebrot> mStack = new ArrayDeque<>();
   private int mandlebrotSize;
+  // The image is drawn into the same bitmap, from the same pixels, every time.
+  private Bitmap bitmap;
+  private int[] pixels;
 
   private ImageView mandlebrotImageView;
   private ColorTableView colorTableView;
@@ -74,8 +79,16 @@ public final class MandlebrotActivity extends Activity {
 
   private ColorTable colorTable;
 
-  static {
-    System.loadLibrary("android_app");
+  private static final boolean NATIVE_CODE_LOADED = loadNativeCode();
+
+  private static boolean loadNativeCode() {
+    try {
+      System.loadLibrary("android_app");
+      return true;
+    } catch (UnsatisfiedLinkError e) {
+      System.out.println("Native code is not available: " + e.getMessage());
+      return false;
+    }
   }
 
   /** Called when the activity is first created. */
@@ -186,7 +199,7 @@ public final class MandlebrotActivity extends Activity {
 
     backButton.setOnClickListener(view -> {
       if (mStack.size() > 1) {
-        mStack.removeLast();
+        mStack.removeLast().release();
         onMandlebrotChanged(null);
       }
     });
@@ -330,11 +343,13 @@ public final class MandlebrotActivity extends Activity {
 
     final List<View> disabledViews = disableUI();
     new Thread(() -> {
-      Mandlebrot mandlebrot = new Mandlebrot(USE_NATIVE_CODE, NUM_THREADS,
+      Tuning tuning =
+          Tuning.load(new File(getFilesDir(), "tuning.properties"), NATIVE_CODE_LOADED);
+      Mandlebrot mandlebrot = new Mandlebrot(tuning.useNativeCode, tuning.numThreads,
           mandlebrotSize, 0, 0, 4);
       runOnUiThread(() -> {
         enableUI(disabledViews);
-        mStack.addLast(mandlebrot);
+        pushMandlebrot(mandlebrot);
         onMandlebrotChanged(toast);
       });
     }).start();
@@ -408,18 +423,20 @@ public final class MandlebrotActivity extends Activity {
   private void colorControlPanelChanged() {
     fillColorTable();
 
-    Bitmap bitmap = produceImage(mStack.peekLast());
-    mandlebrotImageView.setImageBitmap(bitmap);
+    showImage(mStack.peekLast());
 
     colorTableView.invalidate();
   }
 
-  private Bitmap produceImage(Mandlebrot m) {
-    final Bitmap bitmap = Bitmap.createBitmap(mandlebrotSize, mandlebrotSize, Bitmap.Config.ARGB_8888);
-    m.accept((x, y, value) -> {
-      bitmap.setPixel(x, y, 0xFF000000 | colorTable.valueToColor(value));
-    });
-    return bitmap;
+  private void showImage(Mandlebrot m) {
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(mandlebrotSize, mandlebrotSize, Bitmap.Config.ARGB_8888);
+      pixels = new int[mandlebrotSize * mandlebrotSize];
+      mandlebrotImageView.setImageBitmap(bitmap);
+    }
+    colorTable.valuesToColors(m.asIntBuffer(), pixels, 0xFF000000);
+    bitmap.setPixels(pixels, 0, mandlebrotSize, 0, 0, mandlebrotSize, mandlebrotSize);
+    mandlebrotImageView.invalidate();
   }
 
   private int getSizeForMandlebrot() {
@@ -447,13 +464,22 @@ public final class MandlebrotActivity extends Activity {
     }
   }
 
+  /**
+   * Adds m to the history, releasing the oldest view if the history is full.
+   */
+  private void pushMandlebrot(Mandlebrot m) {
+    mStack.addLast(m);
+    if (mStack.size() > MAX_HISTORY) {
+      mStack.removeFirst().release();
+    }
+  }
+
   private void onMandlebrotChanged(final Toast toast) {
     backButton.setEnabled(mStack.size() > 1);
     Mandlebrot mandlebrot = mStack.peekLast();
     mandlebrotTextView.setText(mandlebrot.toString());
 
-    Bitmap bitmap = produceImage(mandlebrot);
-    mandlebrotImageView.setImageBitmap(bitmap);
+    showImage(mandlebrot);
 
     if (toast != null) {
       toast.cancel();
@@ -496,7 +522,7 @@ public final class MandlebrotActivity extends Activity {
       Mandlebrot mandlebrot = mStack.peekLast().panZoom(x, y, zoomFactor);
       runOnUiThread(() -> {
         enableUI(disabledViews);
-        mStack.addLast(mandlebrot);
+        pushMandlebrot(mandlebrot);
         onMandlebrotChanged(toast);
       });
     }).start();
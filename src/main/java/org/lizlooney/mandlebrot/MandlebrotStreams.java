@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Stream views of a Mandlebrot, for analytics on the desktop. They are kept out of Mandlebrot
+ * because Mandlebrot is also part of the Android app, where streams need a newer API level than
+ * the app supports.
+ */
+public final class MandlebrotStreams {
+  private MandlebrotStreams() {
+  }
+
+  public static IntStream values(Mandlebrot m) {
+    IntBuffer values = m.asIntBuffer();
+    return IntStream.range(0, values.capacity()).map(values::get);
+  }
+
+  /**
+   * Returns the tiles that cover m. The returned stream may be made parallel.
+   */
+  public static Stream<Mandlebrot.Tile> tiles(Mandlebrot m, int tileSize) {
+    return m.tiles(tileSize).stream();
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8-bit RGB PNG files, compressing bands of rows on several threads at once.
+ *
+ * <p>Like pigz, each band is deflated on its own, with the last 32K of the rows before it as its
+ * preset dictionary, and ends with a sync flush so the bands can simply be concatenated into one
+ * zlib stream. Each band is written as its own IDAT chunk as soon as it and the bands before it
+ * are done.
+ */
+class PngEncoder {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+  // zlib header for deflate with a 32K window and the default compression level.
+  private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+  private static final int BAND_BYTES = 128 * 1024;
+  private static final int DICTIONARY_BYTES = 32 * 1024;
+  private static final int FILTER_SUB = 1;
+  private static final int BYTES_PER_PIXEL = 3;
+
+  /**
+   * Supplies the pixels of an image one row at a time. It must be safe to call from several
+   * threads at once.
+   */
+  interface RowSource {
+    void getRow(int y, int[] rgb);
+  }
+
+  /**
+   * Writes the image of m, colored by colorTable, without producing a BufferedImage.
+   */
+  static void write(Mandlebrot m, ColorTable colorTable, int numThreads, OutputStream out)
+      throws IOException {
+    int sizeInPixels = m.getSizeInPixels();
+    write(sizeInPixels, sizeInPixels, numThreads, out,
+        (y, rgb) -> colorTable.valuesToColors(m.row(y), rgb, 0));
+  }
+
+  static void write(BufferedImage image, int numThreads, OutputStream out) throws IOException {
+    int width = image.getWidth();
+    write(width, image.getHeight(), numThreads, out,
+        (y, rgb) -> image.getRGB(0, y, width, 1, rgb, 0, width));
+  }
+
+  static void write(int width, int height, int numThreads, OutputStream out, RowSource rows)
+      throws IOException {
+    int rowBytes = 1 + BYTES_PER_PIXEL * width;
+    int rowsPerBand = Math.max(1, BAND_BYTES / rowBytes);
+    int dictionaryRows = (DICTIONARY_BYTES + rowBytes - 1) / rowBytes;
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(SIGNATURE);
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(width);
+    headerData.writeInt(height);
+    headerData.writeByte(8); // bit depth
+    headerData.writeByte(2); // color type: RGB
+    headerData.writeByte(0); // compression method: deflate
+    headerData.writeByte(0); // filter method: adaptive
+    headerData.writeByte(0); // interlace method: none
+    writeChunk(data, "IHDR", header.toByteArray(), header.size());
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+      Thread thread = new Thread(r, "PngEncoder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<Band>> bands = new ArrayList<>();
+      for (int start = 0; start < height; start += rowsPerBand) {
+        int bandStart = start;
+        int bandEnd = Math.min(start + rowsPerBand, height);
+        bands.add(executor.submit(() -> deflateBand(width, rowBytes, rows,
+            Math.max(0, bandStart - dictionaryRows), bandStart, bandEnd, bandEnd == height)));
+      }
+      long adler = 1;
+      for (Future<Band> future : bands) {
+        Band band = future.get();
+        writeChunk(data, "IDAT", band.deflated, band.deflated.length);
+        adler = combineAdler32(adler, band.adler, band.rawLength);
+      }
+      byte[] trailer = {
+          (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+      writeChunk(data, "IDAT", trailer, trailer.length);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    writeChunk(data, "IEND", new byte[0], 0);
+    data.flush();
+  }
+
+  private static final class Band {
+    final byte[] deflated;
+    final long adler;
+    final int rawLength;
+
+    Band(byte[] deflated, long adler, int rawLength) {
+      this.deflated = deflated;
+      this.adler = adler;
+      this.rawLength = rawLength;
+    }
+  }
+
+  /**
+   * Filters and deflates rows bandStart to bandEnd. The rows from dictionaryStart to bandStart
+   * were deflated by the band before; they're filtered again only to use as the dictionary.
+   */
+  private static Band deflateBand(int width, int rowBytes, RowSource rows,
+      int dictionaryStart, int bandStart, int bandEnd, boolean last) {
+    byte[] raw = new byte[(bandEnd - dictionaryStart) * rowBytes];
+    int[] rgb = new int[width];
+    for (int y = dictionaryStart; y < bandEnd; y++) {
+      rows.getRow(y, rgb);
+      filterRow(rgb, raw, (y - dictionaryStart) * rowBytes);
+    }
+    int offset = (bandStart - dictionaryStart) * rowBytes;
+    int length = raw.length - offset;
+
+    Adler32 adler = new Adler32();
+    adler.update(raw, offset, length);
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 2);
+    try {
+      if (bandStart == 0) {
+        deflated.write(ZLIB_HEADER, 0, ZLIB_HEADER.length);
+      } else {
+        int dictionaryLength = Math.min(offset, DICTIONARY_BYTES);
+        deflater.setDictionary(raw, offset - dictionaryLength, dictionaryLength);
+      }
+      deflater.setInput(raw, offset, length);
+      byte[] buffer = new byte[64 * 1024];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int n = deflater.deflate(buffer);
+          deflated.write(buffer, 0, n);
+        }
+      } else {
+        int n;
+        do {
+          n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          deflated.write(buffer, 0, n);
+        } while (n == buffer.length);
+      }
+    } finally {
+      deflater.end();
+    }
+    return new Band(deflated.toByteArray(), adler.getValue(), length);
+  }
+
+  /**
+   * Stores one row, with the Sub filter, at offset in raw.
+   */
+  private static void filterRow(int[] rgb, byte[] raw, int offset) {
+    raw[offset++] = FILTER_SUB;
+    int previous = 0;
+    for (int color : rgb) {
+      raw[offset++] = (byte) ((color >> 16) - (previous >> 16));
+      raw[offset++] = (byte) ((color >> 8) - (previous >> 8));
+      raw[offset++] = (byte) (color - previous);
+      previous = color;
+    }
+  }
+
+  /**
+   * Returns the Adler-32 of two pieces of data, given the Adler-32 of each and the length of the
+   * second, the same way as zlib's adler32_combine.
+   */
+  static long combineAdler32(long adler1, long adler2, long length2) {
+    final int base = 65521;
+    long remainder = length2 % base;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (remainder * sum1) % base;
+    sum1 += (adler2 & 0xffff) + base - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum2 >= 2 * base) {
+      sum2 -= 2 * base;
+    }
+    if (sum2 >= base) {
+      sum2 -= base;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
+  private static void writeChunk(DataOutputStream out, String type, byte[] data, int length)
+      throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Speculatively renders the views the user is likely to go to next, on a low priority thread,
+ * while the UI is idle. Speculation stops as soon as the user actually goes somewhere.
+ */
+class Prefetcher {
+  static final class Move {
+    final int x;
+    final int y;
+    final double zoomFactor;
+
+    Move(int x, int y, double zoomFactor) {
+      this.x = x;
+      this.y = y;
+      this.zoomFactor = zoomFactor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Move)) {
+        return false;
+      }
+      Move that = (Move) o;
+      return x == that.x && y == that.y && zoomFactor == that.zoomFactor;
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * x + y) * 31 + Double.hashCode(zoomFactor);
+    }
+  }
+
+  private final long memoryBudgetBytes;
+  // The Mandlebrot threads run at this thread's priority while they work for it, so real renders
+  // win the CPU.
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Prefetcher");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+  // Guarded by this.
+  private int generation;
+  private Mandlebrot from;
+  private final Map<Move, Mandlebrot> results = new HashMap<>();
+  private final GridCache gridCache;
+
+  /**
+   * Creates a Prefetcher that takes views from gridCache when they are there. Speculative renders
+   * aren't stored in gridCache; only the views the user goes to are.
+   */
+  Prefetcher(long memoryBudgetBytes, GridCache gridCache) {
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.gridCache = gridCache;
+  }
+
+  /**
+   * Discards any previous speculation and starts rendering the given moves from the given
+   * Mandlebrot, in order, for as many as fit in the memory budget.
+   */
+  synchronized void prefetch(Mandlebrot from, List<Move> moves) {
+    final int myGeneration = ++generation;
+    this.from = from;
+    releaseResults();
+
+    long bytesPerResult = 4L * from.getSizeInPixels() * from.getSizeInPixels();
+    int count = (int) Math.min(moves.size(), memoryBudgetBytes / bytesPerResult);
+    final List<Move> movesToRender = moves.subList(0, count);
+    final Mandlebrot.Canceled canceled = () -> isCanceled(myGeneration);
+    executor.execute(() -> {
+      for (Move move : movesToRender) {
+        if (canceled.isCanceled()) {
+          return;
+        }
+        try {
+          Mandlebrot m = gridCache.find(from.getKernel(), from.usesNativeCode(),
+              from.getNumThreads(), from.getSizeInPixels(), from.getA(move.x), from.getB(move.y),
+              from.getSize() * move.zoomFactor);
+          if (m == null) {
+            m = from.panZoom(move.x, move.y, move.zoomFactor, canceled);
+          }
+          synchronized (this) {
+            if (generation == myGeneration) {
+              results.put(move, m);
+            } else {
+              m.release();
+            }
+          }
+        } catch (CancellationException e) {
+          return;
+        }
+      }
+    });
+  }
+
+  private synchronized boolean isCanceled(int myGeneration) {
+    return generation != myGeneration;
+  }
+
+  /**
+   * Stops speculating and returns the already rendered result of the given move, or null if
+   * that move wasn't rendered. The caller owns the result; the others are released.
+   */
+  synchronized Mandlebrot take(Mandlebrot from, int x, int y, double zoomFactor) {
+    generation++;
+    Mandlebrot m = (from == this.from) ? results.remove(new Move(x, y, zoomFactor)) : null;
+    this.from = null;
+    releaseResults();
+    return m;
+  }
+
+  /**
+   * Discards the results that weren't taken. Nothing else has seen them, so their values can be
+   * reused.
+   */
+  private void releaseResults() {
+    for (Mandlebrot m : results.values()) {
+      m.release();
+    }
+    results.clear();
+  }
+}
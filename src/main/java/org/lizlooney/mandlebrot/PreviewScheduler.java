@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.util.function.Consumer;
+
+/**
+ * Renders previews while the user is dragging or zooming, each within a time budget. The size in
+ * pixels, and if that isn't enough the iteration limit, are chosen from how long the previous
+ * previews took. Only the latest requested view is rendered; views requested while a preview is
+ * being calculated replace each other.
+ */
+class PreviewScheduler {
+  private static final int MIN_SIZE_IN_PIXELS = 100;
+  // Preview sizes are multiples of this, so that there are only a few different sizes and their
+  // grids and images can be reused.
+  private static final int SIZE_STEP = 50;
+  private static final int MIN_MAX_VALUE = 50;
+  // How much the latest preview counts, against the ones before it, in the cost estimate.
+  private static final double SMOOTHING = 0.5;
+
+  private final boolean useNativeCode;
+  private final int numThreads;
+  private final int fullSizeInPixels;
+  private final long frameBudgetNanos;
+  private final Consumer<Mandlebrot> onPreview;
+
+  // Guarded by this.
+  private boolean requested;
+  private Kernel kernel;
+  private double aCenter;
+  private double bCenter;
+  private double size;
+
+  // Only used by the preview thread.
+  private double nanosPerPixel;
+  private int maxValue = Mandlebrot.MAX_VALUE;
+
+  /**
+   * Creates a PreviewScheduler that calls onPreview, on its own thread, with each preview. The
+   * previews belong to onPreview, which should release them once they are no longer shown.
+   */
+  PreviewScheduler(boolean useNativeCode, int numThreads, int fullSizeInPixels,
+      long frameBudgetNanos, Consumer<Mandlebrot> onPreview) {
+    this.useNativeCode = useNativeCode;
+    this.numThreads = numThreads;
+    this.fullSizeInPixels = fullSizeInPixels;
+    this.frameBudgetNanos = frameBudgetNanos;
+    this.onPreview = onPreview;
+    Thread thread = new Thread(this::run, "Preview");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  synchronized void request(Kernel kernel, double aCenter, double bCenter, double size) {
+    this.kernel = kernel;
+    this.aCenter = aCenter;
+    this.bCenter = bCenter;
+    this.size = size;
+    requested = true;
+    notifyAll();
+  }
+
+  private void run() {
+    while (true) {
+      Kernel kernel;
+      double aCenter;
+      double bCenter;
+      double size;
+      synchronized (this) {
+        while (!requested) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        requested = false;
+        kernel = this.kernel;
+        aCenter = this.aCenter;
+        bCenter = this.bCenter;
+        size = this.size;
+      }
+      Mandlebrot m = Mandlebrot.preview(kernel, useNativeCode, numThreads,
+          chooseSizeInPixels(), aCenter, bCenter, size, maxValue);
+      RenderStats renderStats = m.getRenderStats();
+      double measured = (double) renderStats.elapsedNanos / renderStats.pixels;
+      nanosPerPixel = (nanosPerPixel == 0)
+          ? measured
+          : SMOOTHING * measured + (1 - SMOOTHING) * nanosPerPixel;
+      onPreview.accept(m);
+    }
+  }
+
+  /**
+   * Returns the largest size in pixels that is expected to fit in the budget. Lowers the
+   * iteration limit if even the smallest size doesn't fit, and raises it again when the largest
+   * size fits with room to spare.
+   */
+  private int chooseSizeInPixels() {
+    if (nanosPerPixel == 0) {
+      return MIN_SIZE_IN_PIXELS;
+    }
+    int sizeInPixels = (int) Math.sqrt(frameBudgetNanos / nanosPerPixel);
+    if (sizeInPixels < MIN_SIZE_IN_PIXELS && maxValue > MIN_MAX_VALUE) {
+      // The cost of a pixel is at most proportional to the iteration limit.
+      maxValue = Math.max(maxValue / 2, MIN_MAX_VALUE);
+      nanosPerPixel /= 2;
+    } else if (sizeInPixels >= 2 * fullSizeInPixels && maxValue < Mandlebrot.MAX_VALUE) {
+      maxValue = Math.min(maxValue * 2, Mandlebrot.MAX_VALUE);
+      nanosPerPixel *= 2;
+    }
+    sizeInPixels = Math.max(MIN_SIZE_IN_PIXELS, Math.min(sizeInPixels, fullSizeInPixels));
+    return sizeInPixels / SIZE_STEP * SIZE_STEP;
+  }
+}
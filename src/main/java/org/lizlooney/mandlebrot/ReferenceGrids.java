@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+
+/**
+ * Writes the values that the java engine calculates for one view with each kind of kernel, for
+ * the python module's test to compare against.
+ *
+ * The first line is sizeInPixels, aCenter, bCenter and size. Each line after that is a kernel,
+ * as a string that Kernel.parse accepts, followed by its values in row-major order.
+ */
+public class ReferenceGrids {
+  private static final int SIZE_IN_PIXELS = 64;
+  private static final double A_CENTER = -0.5;
+  private static final double B_CENTER = 0;
+  private static final double SIZE = 3;
+  private static final String[] KERNELS = {
+      "mandlebrot", "julia:-0.8,0.156", "multibrot:3", "burningship",
+  };
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: ReferenceGrids <file>");
+      System.exit(1);
+    }
+    try (PrintWriter out = new PrintWriter(args[0], "UTF-8")) {
+      out.println(SIZE_IN_PIXELS + " " + A_CENTER + " " + B_CENTER + " " + SIZE);
+      for (String kernel : KERNELS) {
+        Mandlebrot m = new Mandlebrot(Kernel.parse(kernel), false, 1, SIZE_IN_PIXELS,
+            A_CENTER, B_CENTER, SIZE);
+        StringBuilder line = new StringBuilder(kernel);
+        IntBuffer values = m.asIntBuffer();
+        for (int i = 0; i < values.limit(); i++) {
+          line.append(' ').append(values.get(i));
+        }
+        out.println(line);
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR events for the phases of producing an image: computing the values, colorizing them and
+ * encoding the image to a file.
+ */
+public final class RenderEvents {
+  private RenderEvents() {
+  }
+
+  @Name("org.lizlooney.mandlebrot.Compute")
+  @Label("Compute")
+  @Category("Mandlebrot")
+  public static class ComputeEvent extends Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Pixels")
+    int pixels;
+
+    @Label("Total Iterations")
+    long totalIterations;
+
+    @Label("Interior Pixels")
+    int interiorPixels;
+
+    @Label("Exterior Pixels")
+    int exteriorPixels;
+
+    @Label("Pixels Per Second")
+    double pixelsPerSecond;
+
+    @Label("Load Imbalance")
+    double loadImbalance;
+  }
+
+  @Name("org.lizlooney.mandlebrot.Colorize")
+  @Label("Colorize")
+  @Category("Mandlebrot")
+  public static class ColorizeEvent extends Event {
+    @Label("Pixels")
+    int pixels;
+  }
+
+  @Name("org.lizlooney.mandlebrot.Encode")
+  @Label("Encode")
+  @Category("Mandlebrot")
+  public static class EncodeEvent extends Event {
+    @Label("Format")
+    String format;
+
+    @Label("File Size")
+    @DataAmount
+    long fileSize;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps rolling aggregates of {@link RenderStats} and exposes them as the JMX MBean
+ * org.lizlooney.mandlebrot:type=RenderMetrics. Each recorded render is also committed as a
+ * {@link RenderEvents.ComputeEvent}.
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+  private static final int WINDOW_SIZE = 64;
+  private static final RenderMetrics INSTANCE = new RenderMetrics();
+
+  static {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+          new ObjectName("org.lizlooney.mandlebrot:type=RenderMetrics"));
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private final RenderStats[] window = new RenderStats[WINDOW_SIZE];
+  private long renderCount;
+  private RenderStats last;
+
+  private RenderMetrics() {
+  }
+
+  public static RenderMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records the given render. computeEvent should have been begun just before the render
+   * started; it is filled in from the stats and committed. The render's Mandlebrot must not have
+   * been released yet, since its values are counted here.
+   */
+  public void record(RenderStats stats, RenderEvents.ComputeEvent computeEvent) {
+    // Count now, while the values are still there, so that the MBean can report them later.
+    stats.totalIterations();
+    synchronized (this) {
+      window[(int) (renderCount % WINDOW_SIZE)] = stats;
+      renderCount++;
+      last = stats;
+    }
+    if (computeEvent.shouldCommit()) {
+      computeEvent.engine = stats.engine;
+      computeEvent.pixels = stats.pixels;
+      computeEvent.totalIterations = stats.totalIterations();
+      computeEvent.interiorPixels = stats.interiorPixels();
+      computeEvent.exteriorPixels = stats.exteriorPixels();
+      computeEvent.pixelsPerSecond = stats.pixelsPerSecond();
+      computeEvent.loadImbalance = stats.loadImbalance();
+      computeEvent.commit();
+    }
+  }
+
+  @Override
+  public synchronized long getRenderCount() {
+    return renderCount;
+  }
+
+  @Override
+  public synchronized String getLastEngine() {
+    return last == null ? "" : last.engine;
+  }
+
+  @Override
+  public synchronized double getLastElapsedMillis() {
+    return last == null ? 0 : last.elapsedNanos / 1e6;
+  }
+
+  @Override
+  public synchronized double getLastPixelsPerSecond() {
+    return last == null ? 0 : last.pixelsPerSecond();
+  }
+
+  @Override
+  public synchronized long getLastTotalIterations() {
+    return last == null ? 0 : last.totalIterations();
+  }
+
+  @Override
+  public synchronized double getLastInteriorFraction() {
+    return last == null ? 0 : (double) last.interiorPixels() / last.pixels;
+  }
+
+  @Override
+  public synchronized double getLastLoadImbalance() {
+    return last == null ? 0 : last.loadImbalance();
+  }
+
+  @Override
+  public synchronized int getWindowSize() {
+    return (int) Math.min(renderCount, WINDOW_SIZE);
+  }
+
+  @Override
+  public synchronized double getAverageElapsedMillis() {
+    int n = getWindowSize();
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += window[i].elapsedNanos / 1e6;
+    }
+    return n == 0 ? 0 : sum / n;
+  }
+
+  @Override
+  public synchronized double getMaxElapsedMillis() {
+    int n = getWindowSize();
+    double max = 0;
+    for (int i = 0; i < n; i++) {
+      max = Math.max(max, window[i].elapsedNanos / 1e6);
+    }
+    return max;
+  }
+
+  @Override
+  public synchronized double getAveragePixelsPerSecond() {
+    int n = getWindowSize();
+    long pixels = 0;
+    long nanos = 0;
+    for (int i = 0; i < n; i++) {
+      pixels += window[i].pixels;
+      nanos += window[i].elapsedNanos;
+    }
+    return nanos == 0 ? 0 : pixels * 1e9 / nanos;
+  }
+
+  @Override
+  public synchronized double getAverageLoadImbalance() {
+    int n = getWindowSize();
+    double sum = 0;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      double loadImbalance = window[i].loadImbalance();
+      if (loadImbalance != 0) {
+        sum += loadImbalance;
+        count++;
+      }
+    }
+    return count == 0 ? 0 : sum / count;
+  }
+
+  @Override
+  public synchronized void reset() {
+    Arrays.fill(window, null);
+    renderCount = 0;
+    last = null;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+/**
+ * JMX view of {@link RenderMetrics}. Averages are over the most recent renders.
+ */
+public interface RenderMetricsMBean {
+  long getRenderCount();
+  String getLastEngine();
+  double getLastElapsedMillis();
+  double getLastPixelsPerSecond();
+  long getLastTotalIterations();
+  double getLastInteriorFraction();
+  double getLastLoadImbalance();
+  int getWindowSize();
+  double getAverageElapsedMillis();
+  double getMaxElapsedMillis();
+  double getAveragePixelsPerSecond();
+  double getAverageLoadImbalance();
+  void reset();
+}
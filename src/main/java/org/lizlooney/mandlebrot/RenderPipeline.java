@@ -0,0 +1,277 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Computes, colorizes and displays frames in three stages, each on its own thread, so that frame
+ * N+1 is being computed while frame N is being colorized and frame N-1 displayed. Throughput is
+ * set by the slowest stage.
+ *
+ * <p>The stages hand frames to each other through queues of queueCapacity frames. When a stage
+ * falls behind, the queue before it fills up and the stage before it waits, back to submit.
+ * Images are reused: there are never more than queueCapacity + 3 of them, and the display stage
+ * must give each one back, with Frame.recycle, once it no longer needs it.
+ *
+ * <p>If a stage fails on a frame, the failure is printed and the frame is dropped, and the
+ * pipeline goes on with the next one, so that submit and finish never wait for a stage that has
+ * died. A dropped frame's Mandlebrot is released and its image recycled, and its job is passed to
+ * failed, on the thread of the stage that failed, so that the owner can stop waiting for it.
+ *
+ * @param <T> the description of a frame, passed to compute and returned with the frame
+ */
+class RenderPipeline<T> {
+  interface Colorizer<T> {
+    void colorize(T job, Mandlebrot m, int[] pixels);
+  }
+
+  static final class Frame<T> {
+    final T job;
+    final Mandlebrot m;
+    final BufferedImage image;
+    private final RenderPipeline<T> pipeline;
+    private boolean recycled;
+
+    private Frame(T job, Mandlebrot m, BufferedImage image, RenderPipeline<T> pipeline) {
+      this.job = job;
+      this.m = m;
+      this.image = image;
+      this.pipeline = pipeline;
+    }
+
+    /**
+     * Gives back this frame's image, once the display no longer needs it. Only the first call
+     * has any effect.
+     */
+    synchronized void recycle() {
+      if (!recycled) {
+        recycled = true;
+        pipeline.recycle(image);
+      }
+    }
+  }
+
+  // Marks the end of the jobs, in every queue, once finish has been called.
+  private final Object end = new Object();
+  private final Function<T, Mandlebrot> compute;
+  private final Colorizer<T> colorizer;
+  private final Consumer<Frame<T>> display;
+  private final Consumer<T> failed;
+  private final BlockingQueue<Object> jobs;
+  private final BlockingQueue<Object> computed;
+  private final BlockingQueue<Object> colorized;
+  private final BlockingQueue<BufferedImage> freeImages;
+  private final int maxImages;
+  private final List<Thread> threads = new ArrayList<>();
+  // Only used by the colorize thread.
+  private int images;
+
+  /**
+   * Creates a pipeline and starts its threads. compute may throw CancellationException to drop a
+   * job; failed isn't called for those.
+   */
+  RenderPipeline(String name, int queueCapacity, Function<T, Mandlebrot> compute,
+      Colorizer<T> colorizer, Consumer<Frame<T>> display, Consumer<T> failed) {
+    this.compute = compute;
+    this.colorizer = colorizer;
+    this.display = display;
+    this.failed = failed;
+    jobs = new ArrayBlockingQueue<>(queueCapacity);
+    computed = new ArrayBlockingQueue<>(queueCapacity);
+    colorized = new ArrayBlockingQueue<>(queueCapacity);
+    // One image is being colorized, one displayed, and one may be kept by the display.
+    maxImages = queueCapacity + 3;
+    freeImages = new ArrayBlockingQueue<>(maxImages);
+    startThread(name + "-compute", this::computeLoop);
+    startThread(name + "-colorize", this::colorizeLoop);
+    startThread(name + "-display", this::displayLoop);
+  }
+
+  private void startThread(String name, Runnable loop) {
+    Thread thread = new Thread(() -> {
+      try {
+        loop.run();
+      } catch (StopException e) {
+        // Interrupted; the pipeline is shutting down.
+      }
+    }, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  /**
+   * Submits a job, waiting if the pipeline is full.
+   */
+  void submit(T job) throws InterruptedException {
+    jobs.put(job);
+  }
+
+  /**
+   * Submits a job, unless the pipeline is full. Returns whether it was submitted.
+   */
+  boolean offer(T job) {
+    return jobs.offer(job);
+  }
+
+  private void recycle(BufferedImage image) {
+    freeImages.offer(image);
+  }
+
+  /**
+   * Waits until every submitted job has been displayed, then stops the threads.
+   */
+  void finish() throws InterruptedException {
+    jobs.put(end);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void computeLoop() {
+    while (true) {
+      Object job = take(jobs);
+      if (job == end) {
+        put(computed, end);
+        return;
+      }
+      Mandlebrot m;
+      try {
+        m = compute.apply((T) job);
+      } catch (CancellationException e) {
+        // Dropped.
+        continue;
+      } catch (RuntimeException | Error e) {
+        e.printStackTrace();
+        fail((T) job);
+        continue;
+      }
+      put(computed, new Frame<>((T) job, m, null, this));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void colorizeLoop() {
+    while (true) {
+      Object item = take(computed);
+      if (item == end) {
+        put(colorized, end);
+        return;
+      }
+      Frame<T> frame = (Frame<T>) item;
+      BufferedImage image;
+      try {
+        image = takeImage(frame.m.getSizeInPixels());
+      } catch (RuntimeException | Error e) {
+        e.printStackTrace();
+        frame.m.release();
+        fail(frame.job);
+        continue;
+      }
+      try {
+        colorizer.colorize(frame.job, frame.m, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+      } catch (RuntimeException | Error e) {
+        e.printStackTrace();
+        recycle(image);
+        frame.m.release();
+        fail(frame.job);
+        continue;
+      }
+      put(colorized, new Frame<>(frame.job, frame.m, image, this));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void displayLoop() {
+    while (true) {
+      Object item = take(colorized);
+      if (item == end) {
+        return;
+      }
+      Frame<T> frame = (Frame<T>) item;
+      try {
+        display.accept(frame);
+      } catch (RuntimeException | Error e) {
+        e.printStackTrace();
+        frame.recycle();
+        frame.m.release();
+        fail(frame.job);
+      }
+    }
+  }
+
+  private void fail(T job) {
+    try {
+      failed.accept(job);
+    } catch (RuntimeException | Error e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns a free image of the given size, waiting for one to be recycled if there are already
+   * maxImages.
+   */
+  private BufferedImage takeImage(int sizeInPixels) {
+    while (true) {
+      BufferedImage image = freeImages.poll();
+      if (image == null && images < maxImages) {
+        image = new BufferedImage(sizeInPixels, sizeInPixels, BufferedImage.TYPE_INT_RGB);
+        images++;
+        return image;
+      }
+      if (image == null) {
+        image = take(freeImages);
+      }
+      if (image.getWidth() == sizeInPixels) {
+        return image;
+      }
+      // Replace an image of the wrong size.
+      images--;
+    }
+  }
+
+  private static final class StopException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static <E> E take(BlockingQueue<E> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      throw new StopException();
+    }
+  }
+
+  private static <E> void put(BlockingQueue<E> queue, E item) {
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      throw new StopException();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.nio.IntBuffer;
+
+/**
+ * Statistics about how a single Mandlebrot render went.
+ *
+ * <p>The iteration and pixel counts take a pass over the values, so they are only counted when
+ * first asked for, which must be before the Mandlebrot is released. Once it has been released
+ * without them being asked for, they are -1.
+ */
+public class RenderStats {
+  public final String engine;
+  public final Kernel kernel;
+  public final int pixels;
+  public final long elapsedNanos;
+  // Empty if the engine doesn't time its threads individually.
+  private final long[] threadBusyNanos;
+  private final int maxValue;
+  // Guarded by this. values is null once the counts have been counted, or can't be any more.
+  private IntBuffer values;
+  private long totalIterations = -1;
+  private int interiorPixels = -1;
+
+  RenderStats(String engine, Kernel kernel, IntBuffer values, int maxValue, long elapsedNanos, long[] threadBusyNanos) {
+    this.engine = engine;
+    this.kernel = kernel;
+    this.pixels = values.remaining();
+    this.elapsedNanos = elapsedNanos;
+    this.threadBusyNanos = threadBusyNanos;
+    this.maxValue = maxValue;
+    this.values = values;
+  }
+
+  public synchronized long totalIterations() {
+    count();
+    return totalIterations;
+  }
+
+  public synchronized int interiorPixels() {
+    count();
+    return interiorPixels;
+  }
+
+  public synchronized int exteriorPixels() {
+    count();
+    return interiorPixels == -1 ? -1 : pixels - interiorPixels;
+  }
+
+  private void count() {
+    if (values == null) {
+      return;
+    }
+    long totalIterations = 0;
+    int interiorPixels = 0;
+    for (int i = values.position(); i < values.limit(); i++) {
+      int value = values.get(i);
+      if (value == Integer.MAX_VALUE) {
+        totalIterations += maxValue + 1;
+        interiorPixels++;
+      } else {
+        totalIterations += value;
+      }
+    }
+    this.totalIterations = totalIterations;
+    this.interiorPixels = interiorPixels;
+    values = null;
+  }
+
+  /**
+   * Called when the values are given back to the GridPool, after which they can't be counted.
+   */
+  synchronized void valuesReleased() {
+    values = null;
+  }
+
+  public double pixelsPerSecond() {
+    return elapsedNanos == 0 ? 0 : pixels * 1e9 / elapsedNanos;
+  }
+
+  public long[] threadBusyNanos() {
+    return threadBusyNanos.clone();
+  }
+
+  /**
+   * Returns the busiest thread's busy time divided by the mean busy time. 1 means the work was
+   * spread perfectly evenly. Returns 0 if the threads weren't timed.
+   */
+  public double loadImbalance() {
+    long max = 0;
+    long sum = 0;
+    for (long nanos : threadBusyNanos) {
+      max = Math.max(max, nanos);
+      sum += nanos;
+    }
+    return sum == 0 ? 0 : (double) max * threadBusyNanos.length / sum;
+  }
+
+  @Override
+  public String toString() {
+    if (totalIterations() == -1) {
+      return String.format("%s %s: %d pixels in %.1f ms (%.0f pixels/s), load imbalance %.2f",
+          engine, kernel, pixels, elapsedNanos / 1e6, pixelsPerSecond(), loadImbalance());
+    }
+    return String.format("%s %s: %d pixels in %.1f ms (%.0f pixels/s), %d iterations, "
+        + "%d interior, %d exterior, load imbalance %.2f",
+        engine, kernel, pixels, elapsedNanos / 1e6, pixelsPerSecond(), totalIterations(),
+        interiorPixels(), exteriorPixels(), loadImbalance());
+  }
+}
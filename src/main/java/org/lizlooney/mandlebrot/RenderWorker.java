@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A process that renders tiles for a {@link DistributedRenderer}.
+ *
+ * Each connection carries any number of requests, one after another. A request is the kernel,
+ * as a string, the doubles aMin, bMin and pixelsPerUnit, the ints xOffset, yOffset and tileSize
+ * and the boolean useFloat (see {@link Mandlebrot#forTile}). The response is the tileSize * tileSize values of the tile, in
+ * row-major order.
+ */
+public class RenderWorker {
+  private final boolean useNativeCode;
+  private final int numThreads;
+
+  RenderWorker(boolean useNativeCode, int numThreads) {
+    this.useNativeCode = useNativeCode;
+    this.numThreads = numThreads;
+  }
+
+  void serve(int port) throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(port)) {
+      while (true) {
+        Socket socket = serverSocket.accept();
+        new Thread(() -> handleConnection(socket)).start();
+      }
+    }
+  }
+
+  private void handleConnection(Socket socket) {
+    try (Socket s = socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+      while (true) {
+        Kernel kernel;
+        try {
+          kernel = Kernel.parse(in.readUTF());
+        } catch (EOFException e) {
+          return;
+        }
+        double aMin = in.readDouble();
+        double bMin = in.readDouble();
+        double pixelsPerUnit = in.readDouble();
+        int xOffset = in.readInt();
+        int yOffset = in.readInt();
+        int tileSize = in.readInt();
+        boolean useFloat = in.readBoolean();
+        Mandlebrot m = Mandlebrot.forTile(kernel, useNativeCode, numThreads, tileSize,
+            aMin, bMin, pixelsPerUnit, xOffset, yOffset, useFloat);
+        try {
+          writeValues(out, m);
+        } finally {
+          m.release();
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  static void writeRequest(DataOutputStream out, Kernel kernel, double aMin, double bMin, double pixelsPerUnit,
+      int xOffset, int yOffset, int tileSize, boolean useFloat) throws IOException {
+    out.writeUTF(kernel.toString());
+    out.writeDouble(aMin);
+    out.writeDouble(bMin);
+    out.writeDouble(pixelsPerUnit);
+    out.writeInt(xOffset);
+    out.writeInt(yOffset);
+    out.writeInt(tileSize);
+    out.writeBoolean(useFloat);
+    out.flush();
+  }
+
+  private static void writeValues(DataOutputStream out, Mandlebrot m) throws IOException {
+    int sizeInPixels = m.getSizeInPixels();
+    ByteBuffer bytes = ByteBuffer.allocate(4 * sizeInPixels * sizeInPixels);
+    bytes.asIntBuffer().put(m.asIntBuffer());
+    out.write(bytes.array());
+  }
+
+  static int[] readValues(DataInputStream in, int tileSize) throws IOException {
+    byte[] bytes = new byte[4 * tileSize * tileSize];
+    in.readFully(bytes);
+    int[] values = new int[tileSize * tileSize];
+    ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+    return values;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: RenderWorker <port>");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+    boolean useNativeCode = Boolean.getBoolean("mandlebrot.useNativeCode");
+    if (useNativeCode) {
+      System.loadLibrary("mandlebrot_jni");
+    }
+    int numThreads = Integer.getInteger("mandlebrot.numThreads",
+        Runtime.getRuntime().availableProcessors());
+    System.out.println("Rendering tiles on port " + port);
+    new RenderWorker(useNativeCode, numThreads).serve(port);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.IntBuffer;
+
+/**
+ * The iterations and time spent on each tile of a Mandlebrot that was calculated a tile at a
+ * time. It can be used as the TileListener of the calculation, since each tile is recorded only
+ * once, by the thread that calculated it.
+ */
+class TileCosts implements Mandlebrot.TileListener {
+  // The heatmap goes from blue, for the cheapest tiles, to red, for the most expensive.
+  private static final float CHEAP_HUE = 2 / 3f;
+  private static final int HEATMAP_ALPHA = 0x80;
+
+  private final int sizeInPixels;
+  private final int tileSize;
+  private final int tilesPerRow;
+  private final long[] iterations;
+  private final long[] nanos;
+
+  TileCosts(int sizeInPixels, int tileSize) {
+    this.sizeInPixels = sizeInPixels;
+    this.tileSize = tileSize;
+    tilesPerRow = (sizeInPixels + tileSize - 1) / tileSize;
+    iterations = new long[tilesPerRow * tilesPerRow];
+    nanos = new long[tilesPerRow * tilesPerRow];
+  }
+
+  @Override
+  public void tileCompleted(Mandlebrot m, Mandlebrot.Tile tile, long tileNanos) {
+    long tileIterations = 0;
+    for (int row = 0; row < tile.height; row++) {
+      IntBuffer values = tile.row(row);
+      for (int i = 0; i < tile.width; i++) {
+        // Values above the limit are points that didn't escape, after maxValue iterations.
+        tileIterations += Math.min(values.get(i), m.getMaxValue());
+      }
+    }
+    int index = (tile.y / tileSize) * tilesPerRow + tile.x / tileSize;
+    iterations[index] = tileIterations;
+    nanos[index] = tileNanos;
+  }
+
+  /**
+   * Paints the heatmap of time per tile over an image of sizeInPixels pixels.
+   */
+  void paint(Graphics2D g) {
+    long maxNanos = 1;
+    for (long tileNanos : nanos) {
+      maxNanos = Math.max(maxNanos, tileNanos);
+    }
+    for (int index = 0; index < nanos.length; index++) {
+      float cost = (float) nanos[index] / maxNanos;
+      int rgb = Color.HSBtoRGB(CHEAP_HUE * (1 - cost), 1, 1) & 0xffffff;
+      g.setColor(new Color((HEATMAP_ALPHA << 24) | rgb, true));
+      int x = (index % tilesPerRow) * tileSize;
+      int y = (index / tilesPerRow) * tileSize;
+      g.fillRect(x, y, Math.min(tileSize, sizeInPixels - x), Math.min(tileSize, sizeInPixels - y));
+    }
+  }
+
+  /**
+   * Writes one line per tile, with its pixel bounds, iterations and nanoseconds, after a header
+   * line.
+   */
+  void writeCsv(Writer out) throws IOException {
+    out.write("x,y,width,height,iterations,nanos\n");
+    for (int index = 0; index < nanos.length; index++) {
+      int x = (index % tilesPerRow) * tileSize;
+      int y = (index / tilesPerRow) * tileSize;
+      out.write(x + "," + y + "," + Math.min(tileSize, sizeInPixels - x) + ","
+          + Math.min(tileSize, sizeInPixels - y) + "," + iterations[index] + "," + nanos[index]
+          + "\n");
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+/**
+ * Serves Mandlebrot tiles as PNGs at /z/x/y.png, for use with XYZ-style web map viewers, and
+ * counters at /stats. A kernel other than the mandlebrot set can be chosen with a query parameter,
+ * for example /0/0/0.png?kernel=julia:-0.8,0.156.
+ *
+ * At zoom level 0 a single tile covers the square with center (-0.5, 0) and width/height 4.
+ * Each zoom level halves the width/height of a tile.
+ */
+public class TileServer {
+  private static final int TILE_SIZE = 256;
+  private static final double WORLD_A_MIN = -2.5;
+  private static final double WORLD_B_MIN = -2;
+  private static final double WORLD_SIZE = 4;
+  // At zoom level 40, pixels are 2^-46 apart, still 32 times the rounding error of a double at
+  // the edge of the world (|c| < 4). Much deeper, neighboring pixels round to the same point and a
+  // tile is blocks of identical pixels.
+  private static final int MAX_ZOOM = 40;
+  private static final Pattern TILE_PATH = Pattern.compile("/(\\d+)/(\\d+)/(\\d+)\\.png");
+
+  private final HttpServer server;
+  private final ExecutorService computePool;
+  private final ColorTable colorTable;
+  private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+  private final PngCache cache;
+
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong sharedComputations = new AtomicLong();
+  private final AtomicLong computations = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+  TileServer(int port, int computeThreads, long cacheBytes) throws IOException {
+    computePool = Executors.newFixedThreadPool(computeThreads);
+    cache = new PngCache(cacheBytes);
+    colorTable = new ColorTable(Mandlebrot.MAX_VALUE, Color::HSBtoRGB);
+    colorTable.fillDefault();
+
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.setExecutor(newRequestExecutor());
+    server.createContext("/stats", this::handleStats);
+    server.createContext("/", this::handleTile);
+  }
+
+  /**
+   * Returns an executor that runs each request on its own virtual thread if the JDK supports
+   * them, or on its own platform thread otherwise. Requests mostly wait on the compute pool, so
+   * they don't need to be bounded.
+   */
+  private static ExecutorService newRequestExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  void start() {
+    server.start();
+  }
+
+  private void handleTile(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    requests.incrementAndGet();
+    try {
+      Matcher matcher = TILE_PATH.matcher(exchange.getRequestURI().getPath());
+      if (!matcher.matches()) {
+        sendError(exchange, 404, "Not found");
+        return;
+      }
+      int z;
+      long x;
+      long y;
+      try {
+        z = Integer.parseInt(matcher.group(1));
+        x = Long.parseLong(matcher.group(2));
+        y = Long.parseLong(matcher.group(3));
+      } catch (NumberFormatException e) {
+        sendError(exchange, 400, "Bad tile coordinates");
+        return;
+      }
+      if (z > MAX_ZOOM || x >= (1L << z) || y >= (1L << z)) {
+        sendError(exchange, 400, "Bad tile coordinates");
+        return;
+      }
+
+      Kernel kernel = Kernel.MANDLEBROT;
+      String kernelParameter;
+      try {
+        kernelParameter = queryParameter(exchange.getRequestURI().getRawQuery(), "kernel");
+      } catch (IllegalArgumentException e) {
+        sendError(exchange, 400, "Bad query");
+        return;
+      }
+      if (kernelParameter != null) {
+        try {
+          kernel = Kernel.parse(kernelParameter);
+        } catch (IllegalArgumentException e) {
+          sendError(exchange, 400, e.getMessage());
+          return;
+        }
+      }
+
+      byte[] png;
+      try {
+        png = getTile(kernel, z, x, y);
+      } catch (ExecutionException | InterruptedException e) {
+        e.printStackTrace();
+        sendError(exchange, 500, "Failed to render tile");
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "image/png");
+      exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+      exchange.sendResponseHeaders(200, png.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(png);
+      }
+    } finally {
+      exchange.close();
+      long latency = System.nanoTime() - start;
+      totalLatencyNanos.addAndGet(latency);
+      maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+  }
+
+  /**
+   * Returns the decoded value of the named parameter of rawQuery, or null if there isn't one.
+   * Throws IllegalArgumentException if rawQuery isn't validly encoded.
+   */
+  private static String queryParameter(String rawQuery, String name) {
+    if (rawQuery == null) {
+      return null;
+    }
+    for (String pair : rawQuery.split("&")) {
+      String[] nameAndValue = pair.split("=", 2);
+      if (URLDecoder.decode(nameAndValue[0], StandardCharsets.UTF_8).equals(name)) {
+        return nameAndValue.length == 2
+            ? URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8) : "";
+      }
+    }
+    return null;
+  }
+
+  private byte[] getTile(Kernel kernel, int z, long x, long y)
+      throws ExecutionException, InterruptedException {
+    String key = kernel + "/" + z + "/" + x + "/" + y;
+    byte[] png = cache.get(key);
+    if (png != null) {
+      cacheHits.incrementAndGet();
+      return png;
+    }
+
+    // Concurrent requests for the same tile share one computation.
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      sharedComputations.incrementAndGet();
+      return existing.get();
+    }
+    png = cache.get(key);
+    if (png != null) {
+      // Another request finished computing this tile between the two checks.
+      inFlight.remove(key);
+      future.complete(png);
+      cacheHits.incrementAndGet();
+      return png;
+    }
+    computePool.execute(() -> {
+      try {
+        byte[] result = renderTile(kernel, z, x, y);
+        cache.put(key, result);
+        future.complete(result);
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      } finally {
+        inFlight.remove(key);
+      }
+    });
+    return future.get();
+  }
+
+  private byte[] renderTile(Kernel kernel, int z, long x, long y) {
+    computations.incrementAndGet();
+    double size = WORLD_SIZE / (1L << z);
+    double aCenter = WORLD_A_MIN + (x + 0.5) * size;
+    double bCenter = WORLD_B_MIN + (y + 0.5) * size;
+
+    // Each tile is rendered on a single thread; the compute pool provides the parallelism.
+    RenderEvents.ComputeEvent computeEvent = new RenderEvents.ComputeEvent();
+    computeEvent.begin();
+    Mandlebrot m = new Mandlebrot(kernel, false, 1, TILE_SIZE, aCenter, bCenter, size);
+    RenderMetrics.getInstance().record(m.getRenderStats(), computeEvent);
+
+    BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    colorTable.valuesToColors(m.asIntBuffer(), pixels, 0);
+    m.release();
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(image, "PNG", baos);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return baos.toByteArray();
+  }
+
+  private void handleStats(HttpExchange exchange) throws IOException {
+    long requests = this.requests.get();
+    double uptimeSeconds = (System.nanoTime() - startNanos) / 1e9;
+    String stats = String.format(
+        "requests %d%n"
+        + "cache_hits %d%n"
+        + "shared_computations %d%n"
+        + "computations %d%n"
+        + "cache_bytes %d%n"
+        + "requests_per_second %.2f%n"
+        + "mean_latency_ms %.3f%n"
+        + "max_latency_ms %.3f%n",
+        requests, cacheHits.get(), sharedComputations.get(), computations.get(),
+        cache.sizeInBytes(), requests / uptimeSeconds,
+        requests == 0 ? 0 : totalLatencyNanos.get() / 1e6 / requests,
+        maxLatencyNanos.get() / 1e6);
+    byte[] body = stats.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  /**
+   * A least recently used cache of encoded tiles, bounded by the total size of the PNGs.
+   */
+  private static class PngCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    PngCache(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    synchronized byte[] get(String key) {
+      return map.get(key);
+    }
+
+    synchronized void put(String key, byte[] png) {
+      byte[] old = map.put(key, png);
+      if (old != null) {
+        bytes -= old.length;
+      }
+      bytes += png.length;
+      Iterator<byte[]> it = map.values().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        bytes -= it.next().length;
+        it.remove();
+      }
+    }
+
+    synchronized long sizeInBytes() {
+      return bytes;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = Integer.getInteger("mandlebrot.port", 8080);
+    int computeThreads = Integer.getInteger("mandlebrot.computeThreads",
+        Runtime.getRuntime().availableProcessors());
+    long cacheBytes = Long.getLong("mandlebrot.cacheBytes", 256L << 20);
+    new TileServer(port, computeThreads, cacheBytes).start();
+    System.out.println("Serving tiles at http://localhost:" + port + "/{z}/{x}/{y}.png");
+  }
+}
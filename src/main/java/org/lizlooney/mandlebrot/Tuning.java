@@ -0,0 +1,210 @@
+/*
+ * Copyright 2023 Liz Looney
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lizlooney.mandlebrot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The engine, number of threads and tile size that render fastest on this machine. They are found
+ * by timing a few short renders the first time, and remembered in a file after that. The
+ * mandlebrot.useNativeCode, mandlebrot.numThreads and mandlebrot.tileSize system properties
+ * override them.
+ */
+public final class Tuning {
+  // The calibration renders are of this view, which has both fast and slow areas but is cheap
+  // enough that calibrating takes about a second.
+  private static final int CALIBRATION_SIZE_IN_PIXELS = 200;
+  private static final double CALIBRATION_A_CENTER = -0.75;
+  private static final double CALIBRATION_B_CENTER = 0.1;
+  private static final double CALIBRATION_SIZE = 3;
+  private static final int WARM_UP_RUNS = 1;
+  private static final int TIMED_RUNS = 3;
+  private static final int[] TILE_SIZES = {32, 64, 128};
+  // Of the thread counts that are within this fraction of the fastest, the smallest is chosen,
+  // leaving the other cores for everything else.
+  private static final double THREAD_COUNT_TOLERANCE = 0.05;
+
+  public final boolean useNativeCode;
+  public final int numThreads;
+  public final int tileSize;
+
+  Tuning(boolean useNativeCode, int numThreads, int tileSize) {
+    this.useNativeCode = useNativeCode;
+    this.numThreads = numThreads;
+    this.tileSize = tileSize;
+  }
+
+  /**
+   * Returns the tuning saved in file, or calibrates and saves it if there is none or it was saved
+   * on a different machine, with any system property overrides applied. The native code is only
+   * considered if it has been loaded.
+   */
+  public static Tuning load(File file, boolean nativeCodeLoaded) {
+    String fingerprint = fingerprint(nativeCodeLoaded);
+    Properties properties = new Properties();
+    Tuning tuning = null;
+    if (file.exists()) {
+      try (InputStream in = new FileInputStream(file)) {
+        properties.load(in);
+        if (fingerprint.equals(properties.getProperty("fingerprint"))) {
+          tuning = new Tuning(
+              Boolean.parseBoolean(properties.getProperty("useNativeCode")),
+              Integer.parseInt(properties.getProperty("numThreads")),
+              Integer.parseInt(properties.getProperty("tileSize")));
+        }
+      } catch (IOException | NumberFormatException e) {
+        e.printStackTrace();
+      }
+    }
+    if (tuning == null) {
+      tuning = calibrate(nativeCodeLoaded);
+      save(file, fingerprint, tuning);
+    }
+    return tuning.withOverrides(nativeCodeLoaded);
+  }
+
+  private static String fingerprint(boolean nativeCodeLoaded) {
+    return Runtime.getRuntime().availableProcessors() + " " + System.getProperty("os.arch")
+        + " " + nativeCodeLoaded;
+  }
+
+  private static void save(File file, String fingerprint, Tuning tuning) {
+    Properties properties = new Properties();
+    properties.setProperty("fingerprint", fingerprint);
+    properties.setProperty("useNativeCode", Boolean.toString(tuning.useNativeCode));
+    properties.setProperty("numThreads", Integer.toString(tuning.numThreads));
+    properties.setProperty("tileSize", Integer.toString(tuning.tileSize));
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    // Write to a temporary file and rename it, so a process that starts at the same time never
+    // reads half a file.
+    File temp = new File(file.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(temp)) {
+      properties.store(out, "Calibrated by org.lizlooney.mandlebrot.Tuning");
+    } catch (IOException e) {
+      e.printStackTrace();
+      return;
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+    }
+  }
+
+  private Tuning withOverrides(boolean nativeCodeLoaded) {
+    String useNativeCodeOverride = System.getProperty("mandlebrot.useNativeCode");
+    return new Tuning(
+        useNativeCodeOverride == null
+            ? useNativeCode
+            : Boolean.parseBoolean(useNativeCodeOverride) && nativeCodeLoaded,
+        Integer.getInteger("mandlebrot.numThreads", numThreads),
+        Integer.getInteger("mandlebrot.tileSize", tileSize));
+  }
+
+  /**
+   * Times short renders to choose the engine, then the number of threads, then the tile size.
+   */
+  static Tuning calibrate(boolean nativeCodeLoaded) {
+    int processors = Runtime.getRuntime().availableProcessors();
+
+    boolean useNativeCode = false;
+    if (nativeCodeLoaded) {
+      long javaNanos = time(() -> render(false, processors));
+      long nativeNanos = time(() -> render(true, processors));
+      useNativeCode = nativeNanos < javaNanos;
+    }
+    final boolean finalUseNativeCode = useNativeCode;
+
+    List<Integer> threadCounts = new ArrayList<>();
+    for (int n = 1; n < processors; n *= 2) {
+      threadCounts.add(n);
+    }
+    threadCounts.add(processors);
+    threadCounts.add(2 * processors);
+    long[] threadNanos = new long[threadCounts.size()];
+    long fastest = Long.MAX_VALUE;
+    for (int i = 0; i < threadCounts.size(); i++) {
+      int n = threadCounts.get(i);
+      threadNanos[i] = time(() -> render(finalUseNativeCode, n));
+      fastest = Math.min(fastest, threadNanos[i]);
+    }
+    int numThreads = processors;
+    for (int i = 0; i < threadCounts.size(); i++) {
+      if (threadNanos[i] <= fastest * (1 + THREAD_COUNT_TOLERANCE)) {
+        numThreads = threadCounts.get(i);
+        break;
+      }
+    }
+    final int finalNumThreads = numThreads;
+
+    int tileSize = TILE_SIZES[0];
+    long fastestTiles = Long.MAX_VALUE;
+    for (int size : TILE_SIZES) {
+      long nanos = time(() -> new Mandlebrot(Kernel.MANDLEBROT, finalUseNativeCode, finalNumThreads,
+          CALIBRATION_SIZE_IN_PIXELS, CALIBRATION_A_CENTER, CALIBRATION_B_CENTER, CALIBRATION_SIZE,
+          () -> false, CALIBRATION_SIZE_IN_PIXELS / 2, CALIBRATION_SIZE_IN_PIXELS / 2, size,
+          (m, tile, tileNanos) -> {}));
+      if (nanos < fastestTiles) {
+        fastestTiles = nanos;
+        tileSize = size;
+      }
+    }
+    return new Tuning(useNativeCode, numThreads, tileSize);
+  }
+
+  private static Mandlebrot render(boolean useNativeCode, int numThreads) {
+    return new Mandlebrot(Kernel.MANDLEBROT, useNativeCode, numThreads,
+        CALIBRATION_SIZE_IN_PIXELS, CALIBRATION_A_CENTER, CALIBRATION_B_CENTER, CALIBRATION_SIZE);
+  }
+
+  private interface Render {
+    Mandlebrot render();
+  }
+
+  /**
+   * Returns the fastest of TIMED_RUNS runs of render, after WARM_UP_RUNS untimed ones. Each render
+   * is released as soon as it is done, so the runs after the first reuse its grid.
+   */
+  private static long time(Render render) {
+    for (int i = 0; i < WARM_UP_RUNS; i++) {
+      render.render().release();
+    }
+    long fastest = Long.MAX_VALUE;
+    for (int i = 0; i < TIMED_RUNS; i++) {
+      long start = System.nanoTime();
+      Mandlebrot m = render.render();
+      fastest = Math.min(fastest, System.nanoTime() - start);
+      m.release();
+    }
+    return fastest;
+  }
+
+  @Override
+  public String toString() {
+    return (useNativeCode ? "native" : "java") + ", " + numThreads + " threads, "
+        + tileSize + " pixel tiles";
+  }
+}
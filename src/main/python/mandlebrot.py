@@ -14,9 +14,66 @@
 # See the License for the specific language governing permissions and
 # limitations under the License.
 
-from typing import Final
+import ctypes
+import os
+from typing import Final, Optional, Tuple
 
 MAX_VALUE: Final[int] = 1000
+INTERIOR_VALUE: Final[int] = 2147483647
+
+MANDLEBROT_ID: Final[int] = 0
+JULIA_ID: Final[int] = 1
+MULTIBROT_ID: Final[int] = 2
+BURNING_SHIP_ID: Final[int] = 3
+
+_LIBRARY_NAME: Final[str] = 'libmandlebrot_jni.so'
+
+
+def _load_native_library() -> Optional[ctypes.CDLL]:
+    """Function that loads the native kernel, or returns None if it isn't available"""
+    candidates = []
+    if 'MANDLEBROT_LIB' in os.environ:
+        candidates.append(os.environ['MANDLEBROT_LIB'])
+    # When run with bazel, the library is a data dependency in the runfiles tree.
+    candidates.append(os.path.join('src', 'main', 'cpp', _LIBRARY_NAME))
+    candidates.append(os.path.join(os.path.dirname(os.path.abspath(__file__)),
+                                   '..', 'cpp', _LIBRARY_NAME))
+    for candidate in candidates:
+        if os.path.exists(candidate):
+            # ctypes.CDLL releases the GIL for the duration of each call.
+            library = ctypes.CDLL(candidate)
+            function = library.mandlebrot_calculate_pixel_values
+            function.restype = None
+            function.argtypes = [
+                ctypes.POINTER(ctypes.c_int32), ctypes.c_int32,
+                ctypes.c_int32, ctypes.c_double, ctypes.c_double, ctypes.c_double, ctypes.c_double,
+                ctypes.c_double, ctypes.c_int32, ctypes.c_int32, ctypes.c_int32,
+                ctypes.c_int32]
+            return library
+    return None
+
+
+_native_library: Optional[ctypes.CDLL] = _load_native_library()
+
+
+def parse_kernel(spec: str) -> Tuple[int, float, float]:
+    """Function that parses a kernel spec, in the same format as Kernel.parse in java"""
+    spec = spec.strip().lower()
+    if spec == 'mandlebrot':
+        return (MANDLEBROT_ID, 0, 0)
+    if spec == 'burningship':
+        return (BURNING_SHIP_ID, 0, 0)
+    if spec.startswith('julia:'):
+        parts = spec[len('julia:'):].split(',')
+        if len(parts) == 2:
+            return (JULIA_ID, float(parts[0]), float(parts[1]))
+    if spec.startswith('multibrot:'):
+        exponent = int(spec[len('multibrot:'):])
+        if exponent == 2:
+            return (MANDLEBROT_ID, 0, 0)
+        if exponent >= 2:
+            return (MULTIBROT_ID, exponent, 0)
+    raise ValueError('Unknown kernel: ' + spec)
 
 class Mandlebrot():
     """Class that does calculations for Mandlebrot fractals."""
@@ -25,38 +82,91 @@ class Mandlebrot():
     pixels_per_unit: float
     a_min: float
     b_min: float
-    # HeyLiz values: int[]
+    # The values, one int32 per pixel, row by row. When the native kernel is used, this is a
+    # memoryview of the buffer that the kernel wrote into, so no copy is made.
+    values: memoryview
 
-    def __init__(self, size_in_pixels: int, a_center: float, b_center: float, size: float):
+    def __init__(self, size_in_pixels: int, a_center: float, b_center: float, size: float,
+                 kernel: str = 'mandlebrot', num_threads: Optional[int] = None,
+                 use_native_code: bool = True):
         self.size_in_pixels = size_in_pixels
         self.size = size
-        self.pixels_per_unit = size_in_pixels // size
+        self.pixels_per_unit = size_in_pixels / size
         self.a_min = a_center - size / 2
         self.b_min = b_center - size / 2
-        self.values = [ 0 for i in range(size_in_pixels * size_in_pixels) ]
-        self.calculate_pixel_values()
+        self.kernel = parse_kernel(kernel)
+        self.num_threads = num_threads if num_threads else (os.cpu_count() or 1)
+        self.use_native_code = use_native_code and _native_library is not None
+        self._buffer = (ctypes.c_int32 * (size_in_pixels * size_in_pixels))()
+        self.values = memoryview(self._buffer).cast('B').cast('i')
+        if self.use_native_code:
+            self.calculate_pixel_values_native()
+        else:
+            self.calculate_pixel_values()
+
+    def calculate_pixel_values_native(self):
+        """Function that calculates the values for all pixels using the native kernel"""
+        kernel_id, kernel_param_a, kernel_param_b = self.kernel
+        _native_library.mandlebrot_calculate_pixel_values(
+            self._buffer, self.num_threads,
+            kernel_id, kernel_param_a, kernel_param_b, self.a_min, self.b_min,
+            self.pixels_per_unit, 0, 0, self.size_in_pixels,
+            MAX_VALUE)
 
     def calculate_pixel_values(self):
         """Function that calculates the values for all pixels"""
         i = 0
         for y_coord in range(self.size_in_pixels):
             for x_coord in range(self.size_in_pixels):
-                complex_number = complex(
+                self.values[i] = Mandlebrot.calculate_value(
+                    self.kernel,
                     self.a_min + x_coord / self.pixels_per_unit,
                     self.b_min + y_coord / self.pixels_per_unit)
-                self.values[i] = Mandlebrot.calculate_value(complex_number)
                 i += 1
 
     @staticmethod
-    def calculate_value(complex_number: complex):
-        """Function that calculates the value for the given complex number"""
-        z_value = complex(complex_number)
-        for i in range(MAX_VALUE):
-            z_squared = z_value * z_value
-            if abs(z_squared) >= 4:
+    def calculate_value(kernel: Tuple[int, float, float], p_a: float, p_b: float):
+        """Function that calculates the value for the pixel (p_a, p_b)
+
+        The arithmetic is the same, operation for operation, as in Kernel.java and mandlebrot.cc,
+        so the values are identical to theirs.
+        """
+        kernel_id, kernel_param_a, kernel_param_b = kernel
+        z_a = p_a
+        z_b = p_b
+        if kernel_id == JULIA_ID:
+            # Here the pixel is the starting value of z, and c is fixed.
+            c_a = kernel_param_a
+            c_b = kernel_param_b
+        else:
+            c_a = p_a
+            c_b = p_b
+        exponent = int(kernel_param_a)
+        for i in range(MAX_VALUE + 1):
+            if kernel_id == MULTIBROT_ID:
+                if z_a * z_a + z_b * z_b >= 4:
+                    return i
+                # z^exponent by repeated multiplication.
+                power_a = z_a
+                power_b = z_b
+                for _ in range(1, exponent):
+                    next_power_a = power_a * z_a - power_b * z_b
+                    power_b = power_a * z_b + power_b * z_a
+                    power_a = next_power_a
+                z_a = power_a + c_a
+                z_b = power_b + c_b
+                continue
+            z_a_squared = z_a * z_a
+            z_b_squared = z_b * z_b
+            if z_a_squared + z_b_squared >= 4:
                 return i
-            z_value = z_squared + complex_number
-        return MAX_VALUE
+            next_a = z_a_squared - z_b_squared + c_a
+            if kernel_id == BURNING_SHIP_ID:
+                z_b = 2 * abs(z_a * z_b) + c_b
+            else:
+                z_b = 2 * z_a * z_b + c_b
+            z_a = next_a
+        return INTERIOR_VALUE
 
     def show_values(self):
         """Function that shows the values as a grid of printable ascii characters"""
@@ -0,0 +1,65 @@
+"""Test that the python module's values are identical to the java engine's"""
+
+# Copyright 2023 Liz Looney
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+import os
+import unittest
+from typing import Dict, List, Tuple
+
+import mandlebrot
+
+# Written by ReferenceGrids.java.
+_REFERENCE_GRIDS = os.path.join('src', 'main', 'python', 'reference_grids.txt')
+
+
+def _read_reference_grids() -> Tuple[Tuple[int, float, float, float], Dict[str, List[int]]]:
+    """Function that reads the view and, for each kernel, the values written by java"""
+    with open(_REFERENCE_GRIDS, encoding='utf-8') as file:
+        size_in_pixels, a_center, b_center, size = file.readline().split()
+        view = (int(size_in_pixels), float(a_center), float(b_center), float(size))
+        grids = {}
+        for line in file:
+            kernel, *values = line.split()
+            grids[kernel] = [int(value) for value in values]
+    return view, grids
+
+
+class MandlebrotTest(unittest.TestCase):
+    """Class that compares the native and pure python grids with java's"""
+
+    def setUp(self):
+        self.view, self.grids = _read_reference_grids()
+        self.assertEqual(len(self.grids), 4)
+
+    def test_native(self):
+        self.assertIsNotNone(mandlebrot._native_library, 'libmandlebrot_jni.so was not found')
+        self.check_grids(use_native_code=True)
+
+    def test_pure_python(self):
+        self.check_grids(use_native_code=False)
+
+    def check_grids(self, use_native_code: bool):
+        """Function that checks the grid of every kernel"""
+        size_in_pixels, a_center, b_center, size = self.view
+        for kernel, expected in self.grids.items():
+            with self.subTest(kernel=kernel):
+                m = mandlebrot.Mandlebrot(size_in_pixels, a_center, b_center, size, kernel=kernel,
+                                          use_native_code=use_native_code)
+                self.assertEqual(m.use_native_code, use_native_code)
+                self.assertEqual(m.values.tolist(), expected)
+
+
+if __name__ == '__main__':
+    unittest.main()